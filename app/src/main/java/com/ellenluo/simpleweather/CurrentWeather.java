@@ -0,0 +1,41 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Current conditions for a location.
+ */
+
+class CurrentWeather {
+
+    // Open Weather Map city id, used to batch requests for saved locations
+    final int cityId;
+    final String city;
+    final String country;
+    final int conditionId;
+    final String description;
+    final double temperature;
+    final int humidity;
+    final double pressure;
+    final double windSpeed;
+    final long sunrise;
+    final long sunset;
+
+    // When the station measured these conditions, or 0 if unknown; a cached response keeps its original time
+    final long observedAt;
+
+    CurrentWeather(int cityId, String city, String country, int conditionId, String description, double temperature,
+                   int humidity, double pressure, double windSpeed, long sunrise, long sunset, long observedAt) {
+        this.cityId = cityId;
+        this.city = city;
+        this.country = country;
+        this.conditionId = conditionId;
+        this.description = description;
+        this.temperature = temperature;
+        this.humidity = humidity;
+        this.pressure = pressure;
+        this.windSpeed = windSpeed;
+        this.sunrise = sunrise;
+        this.sunset = sunset;
+        this.observedAt = observedAt;
+    }
+
+}
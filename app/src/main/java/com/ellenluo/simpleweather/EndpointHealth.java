@@ -0,0 +1,142 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Latency and failure tracking for one endpoint. Timeouts adapt to recent latency, a few times
+ * the p99 within fixed bounds, so a hung connection is abandoned long before the configured
+ * maximum. Requests that time out count as samples of the timeout they hit, so the timeout grows
+ * again when the endpoint slows down. After consecutive failures the circuit opens and requests
+ * fail at once for a cool-down period; then a single probe is let through with the maximum
+ * timeout, closing the circuit if it succeeds.
+ */
+
+class EndpointHealth {
+
+    static final int CLOSED = 0;
+    static final int OPEN = 1;
+    static final int HALF_OPEN = 2;
+
+    private static final int WINDOW = 64;
+
+    // Samples needed before the timeout adapts, and headroom over the p99
+    private static final int MIN_SAMPLES = 10;
+    private static final int TIMEOUT_MULTIPLIER = 3;
+
+    private final int minTimeout;
+    private final int maxTimeout;
+    private final int failureThreshold;
+    private final long coolDownMillis;
+
+    private final LatencyWindow latency = new LatencyWindow(WINDOW);
+
+    private int state = CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long probeStartedAt = -1;
+
+    private int rejectedCount;
+    private int openCount;
+
+    EndpointHealth(int minTimeout, int maxTimeout, int failureThreshold, long coolDownMillis) {
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+        this.failureThreshold = failureThreshold;
+        this.coolDownMillis = coolDownMillis;
+    }
+
+    /**
+     * Returns whether a request may be sent now, reserving the probe if the circuit is half open.
+     * Every request allowed must be followed by recordSuccess or recordFailure.
+     */
+    synchronized boolean allowRequest(long now) {
+        if (state == OPEN && now - openedAt >= coolDownMillis) {
+            state = HALF_OPEN;
+            probeStartedAt = -1;
+        }
+
+        // A probe that never reported back is given up on after the longest timeout
+        if (state == HALF_OPEN && (probeStartedAt < 0 || now - probeStartedAt > maxTimeout)) {
+            probeStartedAt = now;
+            return true;
+        }
+
+        if (state == CLOSED) {
+            return true;
+        }
+
+        rejectedCount++;
+        return false;
+    }
+
+    /**
+     * Returns whether requests are currently being turned away, without reserving anything.
+     */
+    synchronized boolean isRejecting(long now) {
+        if (state == OPEN) {
+            return now - openedAt < coolDownMillis;
+        }
+        return state == HALF_OPEN && probeStartedAt >= 0 && now - probeStartedAt <= maxTimeout;
+    }
+
+    /**
+     * Records a request completed, body included, after millis, closing the circuit.
+     */
+    synchronized void recordSuccess(long millis) {
+        latency.record(millis);
+        consecutiveFailures = 0;
+        state = CLOSED;
+    }
+
+    /**
+     * Records a failed request, opening the circuit once the threshold is reached or a probe fails.
+     */
+    synchronized void recordFailure(long now) {
+        consecutiveFailures++;
+
+        if (state == HALF_OPEN || (state == CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = OPEN;
+            openedAt = now;
+            openCount++;
+        }
+    }
+
+    /**
+     * Records a request abandoned after millis, its timeout, and counts it as a failure.
+     */
+    synchronized void recordTimeout(long now, long millis) {
+        latency.record(millis);
+        recordFailure(now);
+    }
+
+    /**
+     * Returns the timeout to use for the next request, capped at cap.
+     */
+    synchronized int getTimeout(int cap) {
+        int timeout = maxTimeout;
+
+        // The probe may be all that is let through, so it must not fail only because latency has grown
+        if (state != HALF_OPEN && latency.getCount() >= MIN_SAMPLES) {
+            long adaptive = latency.getPercentile(99) * TIMEOUT_MULTIPLIER;
+            timeout = (int) Math.max(minTimeout, Math.min(maxTimeout, adaptive));
+        }
+        return Math.min(timeout, cap);
+    }
+
+    synchronized int getState() {
+        return state;
+    }
+
+    synchronized int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    synchronized int getOpenCount() {
+        return openCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        String name = state == CLOSED ? "closed" : (state == OPEN ? "open" : "half-open");
+        return name + ", timeout " + getTimeout(maxTimeout) + " ms, opened " + openCount + ", rejected " + rejectedCount;
+    }
+
+}
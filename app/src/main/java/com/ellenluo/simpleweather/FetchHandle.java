@@ -0,0 +1,119 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Handle to an in-flight fetch, used to abort its open connections. Also carries whether the
+ * fetch is background work, which yields to foreground requests for the API budget, and whether it
+ * was answered from an outdated cached copy.
+ */
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+class FetchHandle {
+
+    private final Set<HttpURLConnection> connections = new HashSet<>();
+    private final List<Runnable> cancelListeners = new ArrayList<>();
+    private boolean cancelled;
+    private volatile boolean background;
+    private volatile boolean stale;
+
+    FetchHandle() {
+    }
+
+    FetchHandle(boolean background) {
+        this.background = background;
+    }
+
+    boolean isBackground() {
+        return background;
+    }
+
+    /**
+     * Raises this fetch to foreground priority, for example when a foreground caller joins it.
+     */
+    void promote() {
+        background = false;
+    }
+
+    /**
+     * Marks this fetch as answered from an outdated cached copy, because the network failed, the
+     * circuit was open or the budget was used up.
+     */
+    void markStale() {
+        stale = true;
+    }
+
+    boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Registers an open connection, disconnecting it immediately if already cancelled.
+     */
+    synchronized void attach(HttpURLConnection connection) {
+        if (cancelled) {
+            connection.disconnect();
+        } else {
+            connections.add(connection);
+        }
+    }
+
+    /**
+     * Unregisters a connection once its response has been read.
+     */
+    synchronized void detach(HttpURLConnection connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * Registers a callback run on cancellation, running it immediately if already cancelled.
+     */
+    void addCancelListener(Runnable listener) {
+        synchronized (this) {
+            if (!cancelled) {
+                cancelListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    synchronized void removeCancelListener(Runnable listener) {
+        cancelListeners.remove(listener);
+    }
+
+    /**
+     * Marks fetch as cancelled and aborts any open connections.
+     */
+    void cancel() {
+        List<Runnable> listeners;
+
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+
+            for (HttpURLConnection connection : connections) {
+                connection.disconnect();
+            }
+            connections.clear();
+
+            listeners = new ArrayList<>(cancelListeners);
+            cancelListeners.clear();
+        }
+
+        // Run outside the lock, listeners may cancel other handles
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+}
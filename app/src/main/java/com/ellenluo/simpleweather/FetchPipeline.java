@@ -0,0 +1,511 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Fetches current conditions and forecast in parallel on a shared bounded executor.
+ */
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.util.SparseArray;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class FetchPipeline {
+
+    private static final int THREADS = 4;
+    private static final int QUEUE_CAPACITY = 16;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    // Workers a batch may occupy, leaving threads free for the main screen
+    private static final int BATCH_PARALLELISM = 3;
+
+    private static final String HISTORY_DIRECTORY = "history";
+
+    private static final ThreadPoolExecutor executor;
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+
+    private static ObservationHistory history;
+
+    static {
+        executor = new ThreadPoolExecutor(THREADS, THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "fetch-" + count.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY + 1);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Receives results on the main thread as each one arrives.
+     */
+    interface Listener {
+
+        void onCurrentWeather(CurrentWeather current);
+
+        void onForecast(Forecast forecast, ForecastFormatter.Rows rows);
+
+        /**
+         * Called with the time the displayed data was retrieved.
+         */
+        void onUpdated(long time);
+
+        void onError();
+    }
+
+    /**
+     * Receives current conditions for a batch of locations on the main thread.
+     */
+    interface BatchListener {
+
+        /**
+         * Called once per location with its conditions, or null if they could not be retrieved.
+         */
+        void onLocation(int position, CurrentWeather current);
+    }
+
+    /**
+     * Pending fetch that can be cancelled, dropping any undelivered results.
+     */
+    static class Request {
+
+        private final FetchHandle handle;
+        private Future<?> snapshot;
+        private Future<?> current;
+        private Future<?> forecast;
+
+        // Network results, collected on worker threads to write the snapshot
+        private CurrentWeather currentResult;
+        private Forecast forecastResult;
+
+        // Main thread only
+        private boolean delivered;
+
+        Request() {
+            this(false);
+        }
+
+        Request(boolean background) {
+            handle = new FetchHandle(background);
+        }
+
+        /**
+         * Cancels all fetches and aborts their connections.
+         */
+        void cancel() {
+            handle.cancel();
+
+            if (snapshot != null) {
+                snapshot.cancel(true);
+            }
+            if (current != null) {
+                current.cancel(true);
+            }
+            if (forecast != null) {
+                forecast.cancel(true);
+            }
+        }
+
+        boolean isCancelled() {
+            return handle.isCancelled();
+        }
+
+        /**
+         * Records a fetched result, returning a snapshot once both halves have arrived.
+         */
+        private synchronized Snapshot complete(WeatherQuery query, Object result) {
+            if (result instanceof CurrentWeather) {
+                currentResult = (CurrentWeather) result;
+            } else {
+                forecastResult = (Forecast) result;
+            }
+
+            if (currentResult == null || forecastResult == null) {
+                return null;
+            }
+
+            // Results may come from the cache or a stale fallback, so stamp them with when the
+            // conditions were observed rather than when they arrived
+            long time = currentResult.observedAt > 0 ? currentResult.observedAt : System.currentTimeMillis();
+            return new Snapshot(query.getKey(), time, currentResult, forecastResult);
+        }
+    }
+
+    /**
+     * Starts fetching current conditions and forecast for query. If showSnapshot is set, the last
+     * saved result for the same query is delivered first, unless the network wins the race.
+     */
+    static Request fetch(Context context, WeatherQuery query, Units units, boolean showSnapshot, Listener listener) {
+        return fetch(context, query, units, showSnapshot, false, listener);
+    }
+
+    /**
+     * Delivers the last saved result for query without touching the network, for use while
+     * offline. Nothing is delivered if there is no snapshot for the same query.
+     */
+    static Request loadSnapshot(Context context, WeatherQuery query, Units units, Listener listener) {
+        Context app = context.getApplicationContext();
+        Request request = new Request();
+
+        try {
+            request.snapshot = executor.submit(newSnapshotLoad(app, query, units, request, listener));
+        } catch (RejectedExecutionException e) {
+            // Nothing to show either way, and the caller already reports being offline
+        }
+
+        return request;
+    }
+
+    /**
+     * Starts fetching current conditions and forecast for query as background work, which gives
+     * way to foreground requests for the API budget.
+     */
+    static Request fetchInBackground(Context context, WeatherQuery query, Units units, Listener listener) {
+        return fetch(context, query, units, false, true, listener);
+    }
+
+    private static Request fetch(Context context, WeatherQuery query, Units units, boolean showSnapshot,
+                                 boolean background, Listener listener) {
+        Context app = context.getApplicationContext();
+        Request request = new Request(background);
+
+        try {
+            if (showSnapshot) {
+                request.snapshot = executor.submit(newSnapshotLoad(app, query, units, request, listener));
+            }
+            request.current = executor.submit(newFetch(app, query, units, false, request, listener));
+            request.forecast = executor.submit(newFetch(app, query, units, true, request, listener));
+        } catch (RejectedExecutionException e) {
+            // Executor saturated, report failure instead of queueing unbounded work
+            if (request.snapshot != null) {
+                request.snapshot.cancel(true);
+            }
+            if (request.current != null) {
+                request.current.cancel(true);
+            }
+            deliverError(request, listener);
+        }
+
+        return request;
+    }
+
+    /**
+     * Reformats a forecast already in memory, for example after a unit change.
+     */
+    static Request reformat(Context context, final Forecast forecast, final Units units, final Listener listener) {
+        final Context app = context.getApplicationContext();
+        final Request request = new Request();
+
+        try {
+            request.forecast = executor.submit(new Runnable() {
+                public void run() {
+                    final ForecastFormatter.Rows rows = newFormatter(app, units).format(forecast);
+
+                    handler.post(new Runnable() {
+                        public void run() {
+                            if (!request.isCancelled()) {
+                                listener.onForecast(forecast, rows);
+                            }
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            deliverError(request, listener);
+        }
+
+        return request;
+    }
+
+    /**
+     * Fetches current conditions for several saved locations. Locations with a known city id are
+     * fetched together through group requests; the rest fan out as individual requests, with at
+     * most BATCH_PARALLELISM requests running at once.
+     */
+    static Request fetchCurrent(Context context, List<SavedLocations.Location> locations, BatchListener listener) {
+        final Context app = context.getApplicationContext();
+        final Request request = new Request();
+
+        // Split into group requests by city id and single requests by query
+        final List<Runnable> jobs = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+
+        for (int i = 0; i < locations.size(); i++) {
+            if (locations.get(i).cityId != 0) {
+                positions.add(i);
+            }
+            if (positions.size() == RemoteFetch.MAX_GROUP_SIZE || (i == locations.size() - 1 && !positions.isEmpty())) {
+                jobs.add(newGroupFetch(app, locations, positions, request, listener));
+                positions = new ArrayList<>();
+            }
+        }
+
+        final Map<String, CurrentWeather> learned = new ConcurrentHashMap<>();
+        for (int i = 0; i < locations.size(); i++) {
+            if (locations.get(i).cityId == 0) {
+                jobs.add(newSingleFetch(app, locations, i, learned, request, listener));
+            }
+        }
+
+        // Workers pull jobs from a shared cursor instead of flooding the bounded queue
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            public void run() {
+                running.incrementAndGet();
+
+                int job;
+                while (!request.isCancelled() && (job = next.getAndIncrement()) < jobs.size()) {
+                    jobs.get(job).run();
+                }
+
+                // Last worker out stores the city ids learned from single requests
+                if (running.decrementAndGet() == 0 && !learned.isEmpty()) {
+                    SavedLocations.update(PreferenceManager.getDefaultSharedPreferences(app), learned);
+                }
+            }
+        };
+
+        int workers = 0;
+        try {
+            while (workers < Math.min(BATCH_PARALLELISM, jobs.size())) {
+                executor.execute(worker);
+                workers++;
+            }
+        } catch (RejectedExecutionException e) {
+            // Any accepted worker drains all jobs; only fail if none was accepted
+            if (workers == 0) {
+                deliverError(request, listener, locations.size());
+            }
+        }
+
+        return request;
+    }
+
+    /**
+     * Creates a job fetching one group request and posting a result for each of its positions.
+     */
+    private static Runnable newGroupFetch(final Context context, final List<SavedLocations.Location> locations,
+                                          final List<Integer> positions, final Request request,
+                                          final BatchListener listener) {
+        return new Runnable() {
+            public void run() {
+                List<Integer> ids = new ArrayList<>(positions.size());
+                for (int position : positions) {
+                    ids.add(locations.get(position).cityId);
+                }
+
+                List<CurrentWeather> results = RemoteFetch.getGroup(context, ids, request.handle);
+
+                // Match results back to positions by city id
+                final SparseArray<CurrentWeather> byId = new SparseArray<>();
+                if (results != null) {
+                    for (CurrentWeather weather : results) {
+                        byId.put(weather.cityId, weather);
+                    }
+                }
+
+                handler.post(new Runnable() {
+                    public void run() {
+                        if (request.isCancelled()) {
+                            return;
+                        }
+
+                        for (int position : positions) {
+                            listener.onLocation(position, byId.get(locations.get(position).cityId));
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Creates a job fetching a location without a known city id, recording the id it reports.
+     */
+    private static Runnable newSingleFetch(final Context context, final List<SavedLocations.Location> locations,
+                                           final int position, final Map<String, CurrentWeather> learned,
+                                           final Request request, final BatchListener listener) {
+        return new Runnable() {
+            public void run() {
+                WeatherQuery query = locations.get(position).query;
+                final CurrentWeather weather = WeatherProviders.get(context).getCurrentWeather(query, request.handle);
+
+                if (weather != null && weather.cityId != 0) {
+                    learned.put(query.getKey(), weather);
+                }
+
+                handler.post(new Runnable() {
+                    public void run() {
+                        if (!request.isCancelled()) {
+                            listener.onLocation(position, weather);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Creates a task loading the saved snapshot and posting it.
+     */
+    private static Runnable newSnapshotLoad(final Context context, final WeatherQuery query, final Units units,
+                                            final Request request, final Listener listener) {
+        return new Runnable() {
+            public void run() {
+                final Snapshot snapshot = SnapshotStore.load(context);
+                if (snapshot == null || !snapshot.queryKey.equals(query.getKey())) {
+                    return;
+                }
+
+                final ForecastFormatter.Rows rows = newFormatter(context, units).format(snapshot.forecast);
+
+                handler.post(new Runnable() {
+                    public void run() {
+                        if (request.isCancelled() || request.delivered) {
+                            return;
+                        }
+
+                        listener.onCurrentWeather(snapshot.current);
+                        listener.onForecast(snapshot.forecast, rows);
+                        listener.onUpdated(snapshot.updatedAt);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Creates a task fetching one endpoint and posting its result.
+     */
+    @SuppressWarnings("unchecked")
+    private static Runnable newFetch(final Context context, final WeatherQuery query, final Units units,
+                                     final boolean forecast, final Request request, final Listener listener) {
+        return new Runnable() {
+            public void run() {
+                final Object result;
+                final Object display;
+
+                if (forecast) {
+                    // Aggregate days and format rows here so binding does no work on the main thread
+                    Forecast data = WeatherProviders.get(context).getForecast(query, request.handle);
+                    result = data;
+                    display = data == null ? null : newFormatter(context, units).format(data);
+
+                    // After formatting, so the footprint includes the daily summaries
+                    if (data != null) {
+                        Metrics.recordForecast(data);
+                    }
+                } else {
+                    result = WeatherProviders.get(context).getCurrentWeather(query, request.handle);
+                    display = result;
+                }
+
+                if (result == null) {
+                    deliverError(request, listener);
+                    return;
+                }
+
+                if (!forecast) {
+                    getHistory(context).append(query.getKey(), (CurrentWeather) result);
+                }
+
+                final Snapshot snapshot = request.complete(query, result);
+                if (snapshot != null) {
+                    SnapshotStore.save(context, snapshot);
+                }
+
+                handler.post(new Runnable() {
+                    public void run() {
+                        if (request.isCancelled()) {
+                            return;
+                        }
+
+                        request.delivered = true;
+
+                        if (forecast) {
+                            listener.onForecast((Forecast) result, (ForecastFormatter.Rows) display);
+                        } else {
+                            listener.onCurrentWeather((CurrentWeather) display);
+                        }
+
+                        if (snapshot != null) {
+                            listener.onUpdated(snapshot.updatedAt);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Creates forecast formatter using string resources.
+     */
+    private static ForecastFormatter newFormatter(Context context, Units units) {
+        return new ForecastFormatter(context.getString(R.string.humidity), context.getString(R.string.pressure),
+                context.getString(R.string.wind_speed), context.getString(R.string.precipitation),
+                context.getString(R.string.max_wind), units, WeatherIcons.get(context).getGlyphs());
+    }
+
+    /**
+     * Posts a failed result for every location in a batch unless the request has been cancelled.
+     */
+    private static void deliverError(final Request request, final BatchListener listener, final int count) {
+        handler.post(new Runnable() {
+            public void run() {
+                if (!request.isCancelled()) {
+                    for (int i = 0; i < count; i++) {
+                        listener.onLocation(i, null);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Posts an error unless the request has been cancelled.
+     */
+    private static void deliverError(final Request request, final Listener listener) {
+        handler.post(new Runnable() {
+            public void run() {
+                if (!request.isCancelled()) {
+                    listener.onError();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the application-wide observation history, configured from resources. Kept here
+     * rather than in ObservationHistory so that class stays free of Android and builds on the JVM.
+     */
+    private static synchronized ObservationHistory getHistory(Context context) {
+        if (history == null) {
+            Context app = context.getApplicationContext();
+            history = new ObservationHistory(new File(app.getFilesDir(), HISTORY_DIRECTORY),
+                    app.getResources().getInteger(R.integer.history_max_records),
+                    app.getResources().getInteger(R.integer.history_min_interval_minutes) * 60 * 1000L,
+                    app.getResources().getInteger(R.integer.history_full_resolution_days) * 24 * 60 * 60 * 1000L);
+        }
+        return history;
+    }
+
+}
@@ -0,0 +1,237 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * 3-hourly forecast for a location, stored column by column in primitive arrays rather than as
+ * an object per entry. Descriptions are interned in a pool shared by all forecasts, so each
+ * forecast only keeps a small index per entry.
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+class Forecast {
+
+    // The API uses a few dozen distinct descriptions, so the pool stays small
+    private static final Map<String, String> descriptionPool = new HashMap<>();
+
+    private final int size;
+    private final long[] times;
+    private final short[] conditionIds;
+    private final float[] temperatures;
+    private final float[] temperaturesMin;
+    private final float[] temperaturesMax;
+    private final byte[] humidities;
+    private final float[] pressures;
+    private final float[] windSpeeds;
+    private final float[] precipitation;
+
+    // Distinct descriptions of this forecast, and the one used by each entry
+    private final String[] descriptions;
+    private final short[] descriptionIndexes;
+
+    // Computed once, off the main thread, by whoever first asks
+    private List<ForecastDay> days;
+
+    /**
+     * Accumulates entries in time order.
+     */
+    static class Builder {
+
+        private int size;
+        private long[] times;
+        private short[] conditionIds;
+        private float[] temperatures;
+        private float[] temperaturesMin;
+        private float[] temperaturesMax;
+        private byte[] humidities;
+        private float[] pressures;
+        private float[] windSpeeds;
+        private float[] precipitation;
+        private short[] descriptionIndexes;
+        private final Map<String, Short> descriptionIds = new HashMap<>();
+
+        Builder(int capacity) {
+            capacity = Math.max(capacity, 1);
+            times = new long[capacity];
+            conditionIds = new short[capacity];
+            temperatures = new float[capacity];
+            temperaturesMin = new float[capacity];
+            temperaturesMax = new float[capacity];
+            humidities = new byte[capacity];
+            pressures = new float[capacity];
+            windSpeeds = new float[capacity];
+            precipitation = new float[capacity];
+            descriptionIndexes = new short[capacity];
+        }
+
+        /**
+         * Appends conditions at a single forecast time. Precipitation is rain and snow over the
+         * preceding 3 hours, in millimetres.
+         */
+        Builder add(long time, int conditionId, String description, double temperature, double temperatureMin,
+                    double temperatureMax, int humidity, double pressure, double windSpeed, double precipitation) {
+            if (size == times.length) {
+                grow();
+            }
+
+            Short index = descriptionIds.get(description);
+            if (index == null) {
+                index = (short) descriptionIds.size();
+                descriptionIds.put(description, index);
+            }
+
+            times[size] = time;
+            conditionIds[size] = (short) conditionId;
+            temperatures[size] = (float) temperature;
+            temperaturesMin[size] = (float) temperatureMin;
+            temperaturesMax[size] = (float) temperatureMax;
+            humidities[size] = (byte) humidity;
+            pressures[size] = (float) pressure;
+            windSpeeds[size] = (float) windSpeed;
+            this.precipitation[size] = (float) precipitation;
+            descriptionIndexes[size] = index;
+            size++;
+            return this;
+        }
+
+        Forecast build() {
+            String[] descriptions = new String[descriptionIds.size()];
+            for (Map.Entry<String, Short> entry : descriptionIds.entrySet()) {
+                descriptions[entry.getValue()] = intern(entry.getKey());
+            }
+            return new Forecast(this, descriptions);
+        }
+
+        private void grow() {
+            int capacity = times.length * 2;
+            times = Arrays.copyOf(times, capacity);
+            conditionIds = Arrays.copyOf(conditionIds, capacity);
+            temperatures = Arrays.copyOf(temperatures, capacity);
+            temperaturesMin = Arrays.copyOf(temperaturesMin, capacity);
+            temperaturesMax = Arrays.copyOf(temperaturesMax, capacity);
+            humidities = Arrays.copyOf(humidities, capacity);
+            pressures = Arrays.copyOf(pressures, capacity);
+            windSpeeds = Arrays.copyOf(windSpeeds, capacity);
+            precipitation = Arrays.copyOf(precipitation, capacity);
+            descriptionIndexes = Arrays.copyOf(descriptionIndexes, capacity);
+        }
+    }
+
+    /**
+     * Copies the builder's columns, trimmed to size.
+     */
+    private Forecast(Builder builder, String[] descriptions) {
+        size = builder.size;
+        times = Arrays.copyOf(builder.times, size);
+        conditionIds = Arrays.copyOf(builder.conditionIds, size);
+        temperatures = Arrays.copyOf(builder.temperatures, size);
+        temperaturesMin = Arrays.copyOf(builder.temperaturesMin, size);
+        temperaturesMax = Arrays.copyOf(builder.temperaturesMax, size);
+        humidities = Arrays.copyOf(builder.humidities, size);
+        pressures = Arrays.copyOf(builder.pressures, size);
+        windSpeeds = Arrays.copyOf(builder.windSpeeds, size);
+        precipitation = Arrays.copyOf(builder.precipitation, size);
+        descriptionIndexes = Arrays.copyOf(builder.descriptionIndexes, size);
+        this.descriptions = descriptions;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getTime(int i) {
+        return times[i];
+    }
+
+    int getConditionId(int i) {
+        return conditionIds[i];
+    }
+
+    String getDescription(int i) {
+        return descriptions[descriptionIndexes[i]];
+    }
+
+    double getTemperature(int i) {
+        return temperatures[i];
+    }
+
+    double getTemperatureMin(int i) {
+        return temperaturesMin[i];
+    }
+
+    double getTemperatureMax(int i) {
+        return temperaturesMax[i];
+    }
+
+    int getHumidity(int i) {
+        return humidities[i];
+    }
+
+    double getPressure(int i) {
+        return pressures[i];
+    }
+
+    double getWindSpeed(int i) {
+        return windSpeeds[i];
+    }
+
+    double getPrecipitation(int i) {
+        return precipitation[i];
+    }
+
+    /**
+     * Returns daily summaries, computing them on first use in the default time zone.
+     */
+    synchronized List<ForecastDay> getDays() {
+        if (days == null) {
+            days = ForecastDay.aggregate(this, TimeZone.getDefault());
+        }
+        return days;
+    }
+
+    /**
+     * Estimates the heap used by this forecast in bytes, assuming 12 byte object headers, 16 byte
+     * array headers and 4 byte references. Pooled description strings are shared and not counted.
+     * Daily summaries are included once they have been computed.
+     */
+    synchronized long getFootprint() {
+        // Size, then 9 columns, the descriptions, their indexes and the days
+        long bytes = align(12 + 4 + 12 * 4);
+        bytes += array(size, 8);
+        bytes += array(size, 2) * 2;
+        bytes += array(size, 4) * 6;
+        bytes += array(size, 1);
+        bytes += array(descriptions.length, 4);
+
+        if (days != null) {
+            // Unmodifiable wrapper, its ArrayList and backing array, then each day's time, five
+            // doubles, condition id, description reference and entry range
+            bytes += align(12 + 2 * 4) + align(12 + 4 + 4 + 4) + array(days.size(), 4);
+            bytes += days.size() * align(12 + 8 + 5 * 8 + 4 + 4 + 4 + 4);
+        }
+        return bytes;
+    }
+
+    private static long array(int length, int elementSize) {
+        return align(16 + (long) length * elementSize);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static String intern(String description) {
+        synchronized (descriptionPool) {
+            String pooled = descriptionPool.get(description);
+            if (pooled == null) {
+                descriptionPool.put(description, description);
+                pooled = description;
+            }
+            return pooled;
+        }
+    }
+
+}
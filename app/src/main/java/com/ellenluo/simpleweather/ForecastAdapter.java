@@ -1,32 +1,36 @@
 package com.ellenluo.simpleweather;
 
 /**
- * RecyclerView adapter used to populate forecast list.
+ * RecyclerView adapter used to populate forecast list. Shows one summary row per day; tapping a
+ * day expands its 3 hour rows beneath it.
  */
 
-import android.content.SharedPreferences;
-import android.graphics.Typeface;
-import android.preference.PreferenceManager;
+import android.support.v4.view.ViewCompat;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
-import android.widget.Toast;
 
-import org.json.JSONObject;
-
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ViewHolder> {
 
-    private JSONObject json;
-    private Typeface tfWeatherIcons;
-    private SharedPreferences pref;
+    private static final int TYPE_DAY = 0;
+    private static final int TYPE_HOUR = 1;
+
+    private ForecastFormatter.Rows rows;
+
+    // Day rows followed by the hour rows of expanded days
+    private List<ForecastRow> visible = new ArrayList<>();
 
-    private String unitWind;
+    // Start times of expanded days, kept across refreshes
+    private final Set<Long> expanded = new HashSet<>();
 
     /**
      * Provide a reference to the views for each data item.
@@ -54,119 +58,161 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ViewHolder> {
     }
 
     /**
-     * Constructs adapter with JSON data.
+     * Constructs adapter with no rows.
      */
-    ForecastAdapter(JSONObject json) {
-        this.json = json;
+    ForecastAdapter() {
+        this.rows = new ForecastFormatter.Rows(Collections.<ForecastRow>emptyList(),
+                Collections.<List<ForecastRow>>emptyList(), null);
     }
 
     /**
-     * Creates new views (invoked by the layout manager).
+     * Replaces forecast rows, rebinding only the rows whose contents changed.
      */
-    @Override
-    public ForecastAdapter.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-        View itemView = LayoutInflater.from(parent.getContext()).inflate(R.layout.forecast_row, parent, false);
-
-        // Set up fonts/preferences
-        tfWeatherIcons = Typeface.createFromAsset(parent.getContext().getAssets(), "fonts/weathericons.ttf");
-        pref = PreferenceManager.getDefaultSharedPreferences(parent.getContext());
-        getUnits();
-
-        return new ViewHolder(itemView);
+    void setRows(ForecastFormatter.Rows newRows) {
+        // Forget days that have dropped out of the forecast
+        Set<Long> times = new HashSet<>();
+        for (ForecastRow day : newRows.days) {
+            times.add(day.time);
+        }
+        expanded.retainAll(times);
+
+        final List<ForecastRow> oldVisible = visible;
+        final List<ForecastRow> newVisible = flatten(newRows);
+
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldVisible.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newVisible.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                // A day and its first hour share a start time
+                ForecastRow oldRow = oldVisible.get(oldPosition);
+                ForecastRow newRow = newVisible.get(newPosition);
+                return oldRow.time == newRow.time && oldRow.summary == newRow.summary;
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return oldVisible.get(oldPosition).equals(newVisible.get(newPosition));
+            }
+        }, false);
+
+        rows = newRows;
+        visible = newVisible;
+        diff.dispatchUpdatesTo(this);
     }
 
     /**
-     * Replace the contents of a view.
+     * Expands or collapses the day at position.
      */
-    @Override
-    public void onBindViewHolder(ViewHolder holder, int position) {
-        updateForecast(holder, position);
+    private void toggle(int position) {
+        ForecastRow day = visible.get(position);
+        List<ForecastRow> hours = null;
+        for (int d = 0; d < rows.days.size(); d++) {
+            if (rows.days.get(d).time == day.time) {
+                hours = rows.hours.get(d);
+                break;
+            }
+        }
+
+        if (hours == null) {
+            return;
+        }
+
+        if (expanded.remove(day.time)) {
+            visible.subList(position + 1, position + 1 + hours.size()).clear();
+            notifyItemRangeRemoved(position + 1, hours.size());
+        } else {
+            expanded.add(day.time);
+            visible.addAll(position + 1, hours);
+            notifyItemRangeInserted(position + 1, hours.size());
+        }
     }
 
     /**
-     * Return the size of data set.
+     * Lists day rows with the hour rows of expanded days inserted after them.
      */
+    private List<ForecastRow> flatten(ForecastFormatter.Rows rows) {
+        List<ForecastRow> list = new ArrayList<>(rows.days.size());
+        for (int d = 0; d < rows.days.size(); d++) {
+            ForecastRow day = rows.days.get(d);
+            list.add(day);
+            if (expanded.contains(day.time)) {
+                list.addAll(rows.hours.get(d));
+            }
+        }
+        return list;
+    }
+
     @Override
-    public int getItemCount() {
-        return 38;
+    public int getItemViewType(int position) {
+        return visible.get(position).summary ? TYPE_DAY : TYPE_HOUR;
     }
 
     /**
-     * Sets the appropriate wind speed units.
+     * Creates new views (invoked by the layout manager).
      */
-    private void getUnits() {
-        if (pref.getBoolean("metric", false)) {
-            unitWind = "m/s";
+    @Override
+    public ForecastAdapter.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View itemView = LayoutInflater.from(parent.getContext()).inflate(R.layout.forecast_row, parent, false);
+
+        final ViewHolder holder = new ViewHolder(itemView);
+
+        // Set up fonts
+        holder.tvIcon.setTypeface(WeatherIcons.get(parent.getContext()).getTypeface());
+
+        if (viewType == TYPE_DAY) {
+            itemView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    int position = holder.getAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION) {
+                        toggle(position);
+                    }
+                }
+            });
         } else {
-            unitWind = "mph";
+            // Indent hour rows under their day
+            int indent = parent.getResources().getDimensionPixelSize(R.dimen.hour_indent);
+            ViewCompat.setPaddingRelative(itemView, indent, itemView.getPaddingTop(),
+                    ViewCompat.getPaddingEnd(itemView), itemView.getPaddingBottom());
         }
+
+        return holder;
     }
 
     /**
-     * Updates forecast row.
+     * Replace the contents of a view.
      */
-    private void updateForecast(ViewHolder holder, int position) {
-        try {
-            JSONObject current = json.getJSONArray("list").getJSONObject(position);
-            JSONObject main = current.getJSONObject("main");
-            JSONObject details = current.getJSONArray("weather").getJSONObject(0);
-
-            // Set date
-            SimpleDateFormat df = new SimpleDateFormat("EEE, MMMM d 'at' h:mm aa", Locale.US);
-            String forecastDate = df.format(new Date(current.getLong("dt") * 1000));
-            holder.tvDate.setText(forecastDate);
-
-            // Set weather data
-            holder.tvConditions.setText(details.getString("description").toUpperCase());
-            holder.tvTemperature.setText(Math.round(main.getDouble("temp")) + "°");
-            holder.tvMaxMin.setText("Max: " + Math.round(main.getDouble("temp_min")) + "° | Min: " + Math.round(main.getDouble("temp_max")) + "°");
-
-            // Set weather details
-            String humidity = holder.tvDate.getContext().getString(R.string.humidity) + " " + main.getString("humidity") + "%";
-            String pressure = holder.tvDate.getContext().getString(R.string.pressure) + " " + Math.round(main.getDouble("pressure")) + " hPa";
-            String windSpeed = holder.tvDate.getContext().getString(R.string.wind_speed) + " " + current.getJSONObject("wind").getString("speed") + " " + unitWind;
-            holder.tvDetails.setText(humidity + "\n" + pressure + "\n" + windSpeed);
-
-            // Set icon
-            setWeatherIcon(holder, details.getInt("id"));
-        } catch (Exception e) {
-            // Display error message
-            e.printStackTrace();
-            Toast.makeText(holder.tvDate.getContext(), holder.tvDate.getContext().getString(R.string.error_unexpected), Toast.LENGTH_LONG).show();
-        }
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long start = Metrics.start();
+        long allocated = Metrics.startAllocations();
+        ForecastRow row = visible.get(position);
+
+        holder.tvDate.setText(row.date);
+        holder.tvConditions.setText(row.conditions);
+        holder.tvTemperature.setText(row.temperature);
+        holder.tvMaxMin.setText(row.maxMin);
+        holder.tvDetails.setText(row.details);
+        holder.tvIcon.setText(row.icon);
+        Metrics.record(Metrics.BIND_ROW, start);
+        Metrics.recordAllocations(Metrics.BIND_ROW, allocated);
     }
 
     /**
-     * Sets appropriate weather icon.
+     * Return the size of data set.
      */
-    private void setWeatherIcon(ViewHolder holder, int actualId) {
-        int id = actualId / 100;
-        String icon = "";
-
-        switch (id) {
-            case 2:
-                icon = holder.tvDate.getContext().getString(R.string.weather_thunder);
-                break;
-            case 3:
-                icon = holder.tvDate.getContext().getString(R.string.weather_drizzle);
-                break;
-            case 7:
-                icon = holder.tvDate.getContext().getString(R.string.weather_foggy);
-                break;
-            case 8:
-                icon = holder.tvDate.getContext().getString(R.string.weather_cloudy);
-                break;
-            case 6:
-                icon = holder.tvDate.getContext().getString(R.string.weather_snowy);
-                break;
-            case 5:
-                icon = holder.tvDate.getContext().getString(R.string.weather_rainy);
-                break;
-        }
-
-        // Set icon
-        holder.tvIcon.setTypeface(tfWeatherIcons);
-        holder.tvIcon.setText(icon);
+    @Override
+    public int getItemCount() {
+        return visible.size();
     }
 
 }
@@ -0,0 +1,135 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Summary of one calendar day of a 3-hourly forecast, referring back to the entries it covers.
+ */
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+class ForecastDay {
+
+    // Most entries a day can hold at 3 hour intervals
+    private static final int ENTRIES_PER_DAY = 8;
+
+    final long time;
+    final double temperatureMin;
+    final double temperatureMax;
+    final double temperatureMean;
+    final int conditionId;
+    final String description;
+    final double precipitation;
+    final double windSpeedMax;
+
+    // Range of forecast entries in this day
+    final int first;
+    final int count;
+
+    ForecastDay(long time, double temperatureMin, double temperatureMax, double temperatureMean, int conditionId,
+                String description, double precipitation, double windSpeedMax, int first, int count) {
+        this.time = time;
+        this.temperatureMin = temperatureMin;
+        this.temperatureMax = temperatureMax;
+        this.temperatureMean = temperatureMean;
+        this.conditionId = conditionId;
+        this.description = description;
+        this.precipitation = precipitation;
+        this.windSpeedMax = windSpeedMax;
+        this.first = first;
+        this.count = count;
+    }
+
+    /**
+     * Groups forecast entries by calendar day in a single pass. Entries must be in time order.
+     * The dominant condition is the one reported most often, the earliest winning ties.
+     */
+    static List<ForecastDay> aggregate(Forecast forecast, TimeZone timeZone) {
+        List<ForecastDay> days = new ArrayList<>(6);
+        Calendar calendar = Calendar.getInstance(timeZone);
+
+        // Condition ids seen in the current day with their counts
+        int[] ids = new int[ENTRIES_PER_DAY];
+        int[] counts = new int[ENTRIES_PER_DAY];
+        int[] firstSeen = new int[ENTRIES_PER_DAY];
+        int distinct = 0;
+
+        long dayStart = 0;
+        long dayEnd = Long.MIN_VALUE;
+        int first = 0;
+        double min = 0;
+        double max = 0;
+        double sum = 0;
+        double precipitation = 0;
+        double wind = 0;
+
+        for (int i = 0; i <= forecast.size(); i++) {
+            boolean last = i == forecast.size();
+
+            if (last || forecast.getTime(i) >= dayEnd) {
+                // Close the day in progress
+                if (i > first) {
+                    int dominant = 0;
+                    for (int d = 1; d < distinct; d++) {
+                        if (counts[d] > counts[dominant]) {
+                            dominant = d;
+                        }
+                    }
+
+                    days.add(new ForecastDay(dayStart, min, max, sum / (i - first), ids[dominant],
+                            forecast.getDescription(firstSeen[dominant]), precipitation, wind, first, i - first));
+                }
+
+                if (last) {
+                    break;
+                }
+
+                // Start a new day at local midnight
+                calendar.setTimeInMillis(forecast.getTime(i));
+                calendar.set(Calendar.HOUR_OF_DAY, 0);
+                calendar.set(Calendar.MINUTE, 0);
+                calendar.set(Calendar.SECOND, 0);
+                calendar.set(Calendar.MILLISECOND, 0);
+                dayStart = calendar.getTimeInMillis();
+                calendar.add(Calendar.DAY_OF_MONTH, 1);
+                dayEnd = calendar.getTimeInMillis();
+
+                first = i;
+                distinct = 0;
+                min = Double.MAX_VALUE;
+                max = -Double.MAX_VALUE;
+                sum = 0;
+                precipitation = 0;
+                wind = 0;
+            }
+
+            min = Math.min(min, forecast.getTemperatureMin(i));
+            max = Math.max(max, forecast.getTemperatureMax(i));
+            sum += forecast.getTemperature(i);
+            precipitation += forecast.getPrecipitation(i);
+            wind = Math.max(wind, forecast.getWindSpeed(i));
+
+            int id = forecast.getConditionId(i);
+            int d = 0;
+            while (d < distinct && ids[d] != id) {
+                d++;
+            }
+            if (d == distinct) {
+                if (distinct == ids.length) {
+                    // More entries than expected in a day, for example at a DST change
+                    continue;
+                }
+                ids[d] = id;
+                counts[d] = 0;
+                firstSeen[d] = i;
+                distinct++;
+            }
+            counts[d]++;
+        }
+
+        return Collections.unmodifiableList(days);
+    }
+
+}
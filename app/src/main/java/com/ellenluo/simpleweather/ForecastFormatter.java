@@ -0,0 +1,129 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Converts a forecast into display rows: one summary per day, and the 3 hour entries under each.
+ * Labels are resolved once up front so that formatting needs no resources and can run off the
+ * main thread, or on the plain JVM.
+ */
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+class ForecastFormatter {
+
+    private static final String DAY_PATTERN = "EEE, MMMM d";
+    private static final String HOUR_PATTERN = "h:mm aa";
+
+    private final String humidityLabel;
+    private final String pressureLabel;
+    private final String windSpeedLabel;
+    private final String precipitationLabel;
+    private final String maxWindLabel;
+    private final Units units;
+
+    private final GlyphTable glyphs;
+
+    /**
+     * Formatted forecast. hours.get(d) holds the 3 hour rows of days.get(d), and units those rows
+     * were formatted in.
+     */
+    static class Rows {
+
+        final List<ForecastRow> days;
+        final List<List<ForecastRow>> hours;
+        final Units units;
+
+        Rows(List<ForecastRow> days, List<List<ForecastRow>> hours, Units units) {
+            this.days = days;
+            this.hours = hours;
+            this.units = units;
+        }
+    }
+
+    ForecastFormatter(String humidityLabel, String pressureLabel, String windSpeedLabel, String precipitationLabel,
+                      String maxWindLabel, Units units, GlyphTable glyphs) {
+        this.humidityLabel = humidityLabel;
+        this.pressureLabel = pressureLabel;
+        this.windSpeedLabel = windSpeedLabel;
+        this.precipitationLabel = precipitationLabel;
+        this.maxWindLabel = maxWindLabel;
+        this.units = units;
+        this.glyphs = glyphs;
+    }
+
+    /**
+     * Builds immutable day and hour rows for forecast.
+     */
+    Rows format(Forecast forecast) {
+        // SimpleDateFormat is not thread-safe, so each call gets its own
+        SimpleDateFormat dayFormat = new SimpleDateFormat(DAY_PATTERN, Locale.US);
+        SimpleDateFormat hourFormat = new SimpleDateFormat(HOUR_PATTERN, Locale.US);
+        Date date = new Date();
+        StringBuilder sb = new StringBuilder(64);
+
+        List<ForecastDay> days = forecast.getDays();
+        List<ForecastRow> dayRows = new ArrayList<>(days.size());
+        List<List<ForecastRow>> hourRows = new ArrayList<>(days.size());
+
+        for (ForecastDay day : days) {
+            date.setTime(day.time);
+
+            sb.setLength(0);
+            // Max and min have their own field, so the headline is the day's mean
+            units.appendTemperature(sb, day.temperatureMean).append('°');
+            String temperature = sb.toString();
+
+            sb.setLength(0);
+            units.appendPrecipitation(sb.append(precipitationLabel).append(' '), day.precipitation).append('\n');
+            units.appendWindSpeed(sb.append(maxWindLabel).append(' '), day.windSpeedMax);
+            String details = sb.toString();
+
+            dayRows.add(new ForecastRow(day.time, true, dayFormat.format(date), temperature,
+                    formatMaxMin(sb, day.temperatureMax, day.temperatureMin), day.description.toUpperCase(), details,
+                    glyphs.get(day.conditionId)));
+
+            List<ForecastRow> rows = new ArrayList<>(day.count);
+            for (int i = day.first; i < day.first + day.count; i++) {
+                rows.add(formatEntry(forecast, i, hourFormat, date, sb));
+            }
+            hourRows.add(Collections.unmodifiableList(rows));
+        }
+
+        return new Rows(Collections.unmodifiableList(dayRows), Collections.unmodifiableList(hourRows), units);
+    }
+
+    /**
+     * Builds the row for a single 3 hour entry.
+     */
+    private ForecastRow formatEntry(Forecast forecast, int i, SimpleDateFormat df, Date date, StringBuilder sb) {
+        date.setTime(forecast.getTime(i));
+
+        sb.setLength(0);
+        units.appendTemperature(sb, forecast.getTemperature(i)).append('°');
+        String temperature = sb.toString();
+
+        String maxMin = formatMaxMin(sb, forecast.getTemperatureMax(i), forecast.getTemperatureMin(i));
+
+        sb.setLength(0);
+        sb.append(humidityLabel).append(' ').append(forecast.getHumidity(i)).append("%\n");
+        units.appendPressure(sb.append(pressureLabel).append(' '), forecast.getPressure(i)).append('\n');
+        units.appendWindSpeed(sb.append(windSpeedLabel).append(' '), forecast.getWindSpeed(i));
+        String details = sb.toString();
+
+        return new ForecastRow(forecast.getTime(i), false, df.format(date), temperature, maxMin,
+                forecast.getDescription(i).toUpperCase(), details, glyphs.get(forecast.getConditionId(i)));
+    }
+
+    private String formatMaxMin(StringBuilder sb, double max, double min) {
+        sb.setLength(0);
+        sb.append("Max: ");
+        units.appendTemperature(sb, max).append("° | Min: ");
+        units.appendTemperature(sb, min).append('°');
+        return sb.toString();
+    }
+
+}
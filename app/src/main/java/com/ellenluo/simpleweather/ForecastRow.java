@@ -0,0 +1,54 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Ready-to-display text for one forecast row, either a daily summary or a single 3 hour entry.
+ */
+
+class ForecastRow {
+
+    final long time;
+    final boolean summary;
+    final String date;
+    final String temperature;
+    final String maxMin;
+    final String conditions;
+    final String details;
+    final String icon;
+
+    ForecastRow(long time, boolean summary, String date, String temperature, String maxMin, String conditions,
+                String details, String icon) {
+        this.time = time;
+        this.summary = summary;
+        this.date = date;
+        this.temperature = temperature;
+        this.maxMin = maxMin;
+        this.conditions = conditions;
+        this.details = details;
+        this.icon = icon;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ForecastRow)) {
+            return false;
+        }
+
+        ForecastRow row = (ForecastRow) o;
+        return time == row.time && summary == row.summary && date.equals(row.date) && temperature.equals(row.temperature)
+                && maxMin.equals(row.maxMin) && conditions.equals(row.conditions) && details.equals(row.details)
+                && icon.equals(row.icon);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (time ^ (time >>> 32));
+        result = 31 * result + (summary ? 1 : 0);
+        result = 31 * result + temperature.hashCode();
+        result = 31 * result + details.hashCode();
+        return 31 * result + icon.hashCode();
+    }
+
+}
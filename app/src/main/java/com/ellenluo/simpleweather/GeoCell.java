@@ -0,0 +1,75 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Geohash cell used to quantize device locations. Every fix inside a cell maps to the cell center,
+ * so small movements produce the same request and reuse cached weather.
+ */
+
+import android.content.Context;
+
+class GeoCell {
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    final String hash;
+    final float lat;
+    final float lon;
+
+    private GeoCell(String hash, float lat, float lon) {
+        this.hash = hash;
+        this.lat = lat;
+        this.lon = lon;
+    }
+
+    /**
+     * Returns the cell containing the given coordinates at the configured grid precision.
+     */
+    static GeoCell of(Context context, double lat, double lon) {
+        return of(lat, lon, context.getResources().getInteger(R.integer.location_grid_precision));
+    }
+
+    /**
+     * Returns the cell containing the given coordinates, using precision geohash characters.
+     */
+    static GeoCell of(double lat, double lon, int precision) {
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        StringBuilder hash = new StringBuilder(precision);
+        boolean even = true;
+        int bit = 0;
+        int ch = 0;
+
+        // Interleave longitude and latitude bisections, five bits per character
+        while (hash.length() < precision) {
+            if (even) {
+                double mid = (minLon + maxLon) / 2;
+                if (lon >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLon = mid;
+                } else {
+                    ch <<= 1;
+                    maxLon = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (lat >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLat = mid;
+                } else {
+                    ch <<= 1;
+                    maxLat = mid;
+                }
+            }
+
+            even = !even;
+            if (++bit == 5) {
+                hash.append(BASE32.charAt(ch));
+                bit = 0;
+                ch = 0;
+            }
+        }
+
+        return new GeoCell(hash.toString(), (float) ((minLat + maxLat) / 2), (float) ((minLon + maxLon) / 2));
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Lookup table from Open Weather Map condition ids to weather icon glyphs.
+ */
+
+class GlyphTable {
+
+    private static final int CLEAR = 800;
+
+    // Glyphs indexed by condition group (condition id / 100)
+    private final String[] groups = new String[10];
+    private final String clearDay;
+    private final String clearNight;
+
+    GlyphTable(String thunder, String drizzle, String rainy, String snowy, String foggy, String cloudy,
+               String clearDay, String clearNight) {
+        groups[2] = thunder;
+        groups[3] = drizzle;
+        groups[5] = rainy;
+        groups[6] = snowy;
+        groups[7] = foggy;
+        groups[8] = cloudy;
+
+        for (int i = 0; i < groups.length; i++) {
+            if (groups[i] == null) {
+                groups[i] = "";
+            }
+        }
+
+        this.clearDay = clearDay;
+        this.clearNight = clearNight;
+    }
+
+    /**
+     * Returns glyph for condition group, ignoring time of day.
+     */
+    String get(int conditionId) {
+        int group = conditionId / 100;
+        if (group < 0 || group >= groups.length) {
+            return "";
+        }
+        return groups[group];
+    }
+
+    /**
+     * Returns glyph for condition, using day/night icons for clear skies.
+     */
+    String get(int conditionId, boolean day) {
+        if (conditionId == CLEAR) {
+            return day ? clearDay : clearNight;
+        }
+        return get(conditionId);
+    }
+
+}
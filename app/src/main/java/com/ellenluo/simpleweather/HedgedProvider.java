@@ -0,0 +1,256 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Sends each request to the primary provider, and if no answer has arrived by the primary's
+ * recent p95 latency, sends the same request to the secondary and takes whichever answers first.
+ * Only about one request in twenty is hedged while the primary is healthy, but when it slows down
+ * the tail is cut to roughly its p95 plus the secondary's latency. The slower leg is cancelled.
+ * A primary that can only offer an outdated cached copy is hedged at once, and the copy is kept
+ * in case the secondary fails too.
+ */
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class HedgedProvider implements WeatherProvider {
+
+    // Recent primary latencies kept per request kind
+    private static final int WINDOW = 128;
+
+    // Legs run here so the caller can wait on both; they are few and short-lived
+    private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "hedge-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final WeatherProvider primary;
+    private final WeatherProvider secondary;
+    private final int minSamples;
+    private final long minDelayMillis;
+    private final long defaultDelayMillis;
+
+    private final LatencyWindow currentLatency = new LatencyWindow(WINDOW);
+    private final LatencyWindow forecastLatency = new LatencyWindow(WINDOW);
+
+    private final AtomicInteger hedgedCount = new AtomicInteger();
+    private final AtomicInteger secondaryWinCount = new AtomicInteger();
+
+    /**
+     * One request, run against either provider.
+     */
+    private interface Call<T> {
+
+        T execute(WeatherProvider provider, FetchHandle handle);
+    }
+
+    /**
+     * Hedges primary with secondary. Until minSamples latencies have been seen, hedging waits
+     * defaultDelayMillis; after that it waits the observed p95, but never less than minDelayMillis.
+     */
+    HedgedProvider(WeatherProvider primary, WeatherProvider secondary, int minSamples, long minDelayMillis,
+                   long defaultDelayMillis) {
+        this.primary = primary;
+        this.secondary = secondary;
+        this.minSamples = minSamples;
+        this.minDelayMillis = minDelayMillis;
+        this.defaultDelayMillis = defaultDelayMillis;
+    }
+
+    @Override
+    public String getName() {
+        return primary.getName() + "+" + secondary.getName();
+    }
+
+    /**
+     * Returns whether either provider has a fresh cached result; results won by the secondary are
+     * cached under its own URLs.
+     */
+    @Override
+    public boolean isFresh(WeatherQuery query, boolean forecast) {
+        return primary.isFresh(query, forecast) || secondary.isFresh(query, forecast);
+    }
+
+    @Override
+    public CurrentWeather getCurrentWeather(final WeatherQuery query, FetchHandle handle) {
+        if (primary.isFresh(query, false)) {
+            return primary.getCurrentWeather(query, handle);
+        }
+        if (secondary.isFresh(query, false)) {
+            return secondary.getCurrentWeather(query, handle);
+        }
+
+        return hedge(currentLatency, handle, new Call<CurrentWeather>() {
+            @Override
+            public CurrentWeather execute(WeatherProvider provider, FetchHandle handle) {
+                return provider.getCurrentWeather(query, handle);
+            }
+        });
+    }
+
+    @Override
+    public Forecast getForecast(final WeatherQuery query, FetchHandle handle) {
+        if (primary.isFresh(query, true)) {
+            return primary.getForecast(query, handle);
+        }
+        if (secondary.isFresh(query, true)) {
+            return secondary.getForecast(query, handle);
+        }
+
+        return hedge(forecastLatency, handle, new Call<Forecast>() {
+            @Override
+            public Forecast execute(WeatherProvider provider, FetchHandle handle) {
+                return provider.getForecast(query, handle);
+            }
+        });
+    }
+
+    /**
+     * Returns how many requests were also sent to the secondary.
+     */
+    int getHedgedCount() {
+        return hedgedCount.get();
+    }
+
+    /**
+     * Returns how many hedged requests were answered by the secondary.
+     */
+    int getSecondaryWinCount() {
+        return secondaryWinCount.get();
+    }
+
+    /**
+     * Returns the current hedge delay for forecasts, for display.
+     */
+    long getForecastDelay() {
+        return getDelay(forecastLatency);
+    }
+
+    /**
+     * Returns the current hedge delay for current conditions, for display.
+     */
+    long getCurrentDelay() {
+        return getDelay(currentLatency);
+    }
+
+    private long getDelay(LatencyWindow latency) {
+        if (latency.getCount() < minSamples) {
+            return defaultDelayMillis;
+        }
+        return Math.max(minDelayMillis, latency.getPercentile(95));
+    }
+
+    /**
+     * Runs call on the primary, adding the secondary once the hedge delay passes or the primary fails
+     * or answers from a stale copy.
+     */
+    private <T> T hedge(final LatencyWindow latency, FetchHandle caller, final Call<T> call) {
+        final FetchHandle primaryHandle = new FetchHandle(caller.isBackground());
+        final FetchHandle secondaryHandle = new FetchHandle(caller.isBackground());
+
+        Runnable cancel = new Runnable() {
+            @Override
+            public void run() {
+                primaryHandle.cancel();
+                secondaryHandle.cancel();
+            }
+        };
+        caller.addCancelListener(cancel);
+
+        CompletionService<T> legs = new ExecutorCompletionService<>(executor);
+        final AtomicBoolean outrun = new AtomicBoolean();
+
+        try {
+            final long start = System.nanoTime();
+            legs.submit(new Callable<T>() {
+                @Override
+                public T call() {
+                    T result = call.execute(primary, primaryHandle);
+
+                    // A primary beaten by the secondary still took at least this long, so it counts towards the tail.
+                    // Stale copies come back at once during an outage, so they say nothing about latency.
+                    if (!primaryHandle.isStale() && (result != null || outrun.get())) {
+                        latency.record((System.nanoTime() - start) / 1000000);
+                    }
+                    return result;
+                }
+            });
+
+            // Outdated copy from the primary, served only if the secondary cannot do better
+            T fallback = null;
+
+            Future<T> first = legs.poll(getDelay(latency), TimeUnit.MILLISECONDS);
+            if (first != null) {
+                T result = first.get();
+                if (result != null && !primaryHandle.isStale()) {
+                    return result;
+                }
+                fallback = result;
+            }
+
+            if (caller.isCancelled()) {
+                return null;
+            }
+
+            hedgedCount.incrementAndGet();
+            final Future<T> hedge = legs.submit(new Callable<T>() {
+                @Override
+                public T call() {
+                    return call.execute(secondary, secondaryHandle);
+                }
+            });
+
+            for (int pending = first == null ? 2 : 1; pending > 0; pending--) {
+                Future<T> done = legs.take();
+                T result = done.get();
+                if (result == null) {
+                    continue;
+                }
+
+                if (done == hedge) {
+                    outrun.set(true);
+                    secondaryWinCount.incrementAndGet();
+                    if (secondaryHandle.isStale()) {
+                        caller.markStale();
+                    }
+                    return result;
+                }
+                if (!primaryHandle.isStale()) {
+                    return result;
+                }
+                fallback = result;
+            }
+
+            if (fallback != null) {
+                caller.markStale();
+            }
+            return fallback;
+        } catch (InterruptedException e) {
+            // Caller was cancelled while waiting
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        } finally {
+            caller.removeCancelListener(cancel);
+
+            // Abort whichever leg is still running
+            primaryHandle.cancel();
+            secondaryHandle.cancel();
+        }
+    }
+
+}
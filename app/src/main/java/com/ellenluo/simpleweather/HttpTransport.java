@@ -0,0 +1,427 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * HTTP transport used by RemoteFetch. Keeps idle connections to the API host alive for reuse,
+ * asks for gzip and decodes it while streaming, and enforces connect, read and total deadlines
+ * that adapt to each endpoint's recent latency. Endpoints that keep failing are cut off by a
+ * circuit breaker. A request's outcome is judged once its body has been consumed, so a body that
+ * stalls or is cut short counts as a failure.
+ */
+
+import android.content.Context;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+class HttpTransport {
+
+    // Bytes read from an unconsumed body before giving up on reusing its connection
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    // Not defined by HttpURLConnection
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    // Circuit breaker settings for transports built without resources, such as in tests
+    private static final int DEFAULT_MIN_TIMEOUT = 1000;
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_COOL_DOWN_MILLIS = 30 * 1000;
+
+    // Request outcomes reported to the endpoint's health
+    private static final int SUCCESS = 0;
+    private static final int FAILURE = 1;
+    private static final int TIMEOUT = 2;
+
+    // Socket timeouts only bound each read, so a slow drip is cut off from here
+    private static final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "http-deadline");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static HttpTransport instance;
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int minTimeout;
+    private final int failureThreshold;
+    private final long coolDownMillis;
+
+    // Keyed by host, port and path
+    private final ConcurrentHashMap<String, EndpointHealth> endpoints = new ConcurrentHashMap<>();
+
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * Thrown without touching the network while an endpoint's circuit is open.
+     */
+    static class CircuitOpenException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        CircuitOpenException(String endpoint) {
+            super("Circuit open for " + endpoint);
+        }
+    }
+
+    /**
+     * Response whose body must be closed to return the connection to the pool.
+     */
+    static class Response implements Closeable {
+
+        final int code;
+        private final HttpURLConnection connection;
+        private final FetchHandle handle;
+        private final Exchange exchange;
+        private final CountingInputStream raw;
+        private final InputStream body;
+        private boolean closed;
+
+        private Response(int code, HttpURLConnection connection, FetchHandle handle, Exchange exchange,
+                         CountingInputStream raw, InputStream body) {
+            this.code = code;
+            this.connection = connection;
+            this.handle = handle;
+            this.exchange = exchange;
+            this.raw = raw;
+            this.body = body;
+        }
+
+        String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        /**
+         * Returns the decoded response body.
+         */
+        InputStream getBody() {
+            return body;
+        }
+
+        /**
+         * Drains the rest of the body so the connection can be reused, then closes it and reports
+         * the outcome to the endpoint's health.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            // Server errors and throttling count against the endpoint like timeouts do
+            int outcome = code >= HttpURLConnection.HTTP_INTERNAL_ERROR || code == HTTP_TOO_MANY_REQUESTS
+                    ? FAILURE : SUCCESS;
+
+            try {
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                int read;
+
+                while (drained < MAX_DRAIN_BYTES && (read = raw.read(buffer)) != -1) {
+                    drained += read;
+                }
+
+                if (drained >= MAX_DRAIN_BYTES) {
+                    // Not worth reading the rest, drop the socket instead
+                    connection.disconnect();
+                }
+                body.close();
+            } catch (IOException e) {
+                connection.disconnect();
+            } finally {
+                handle.detach(connection);
+            }
+
+            // Includes errors the caller saw while reading the body
+            if (raw.error != null) {
+                outcome = raw.error instanceof SocketTimeoutException ? TIMEOUT : FAILURE;
+            }
+            exchange.finish(outcome);
+        }
+    }
+
+    /**
+     * One request against an endpoint. Disconnects the request if it is still running at its total
+     * deadline, and reports how it went once it is over.
+     */
+    private static class Exchange implements Runnable {
+
+        private final EndpointHealth health;
+        private final HttpURLConnection connection;
+        private final FetchHandle handle;
+        private final int deadlineMillis;
+        private final long begin = System.nanoTime();
+        private final ScheduledFuture<?> deadline;
+        private volatile boolean timedOut;
+        private boolean finished;
+
+        Exchange(EndpointHealth health, HttpURLConnection connection, FetchHandle handle, int deadlineMillis) {
+            this.health = health;
+            this.connection = connection;
+            this.handle = handle;
+            this.deadlineMillis = deadlineMillis;
+            this.deadline = deadlines.schedule(this, deadlineMillis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Runs on the deadline thread. The flag fails the body's next read even where disconnecting
+         * does not abort a read already in progress.
+         */
+        @Override
+        public void run() {
+            timedOut = true;
+            connection.disconnect();
+        }
+
+        /**
+         * Reports the outcome once, unless the caller cancelled the request, which says nothing
+         * about the endpoint.
+         */
+        synchronized void finish(int outcome) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            deadline.cancel(false);
+
+            long elapsed = (System.nanoTime() - begin) / 1000000;
+            if (timedOut) {
+                outcome = TIMEOUT;
+            } else if (handle.isCancelled()) {
+                return;
+            }
+
+            if (outcome == TIMEOUT) {
+                health.recordTimeout(now(), Math.min(elapsed, deadlineMillis));
+            } else if (outcome == FAILURE) {
+                health.recordFailure(now());
+            } else {
+                health.recordSuccess(elapsed);
+            }
+        }
+    }
+
+    /**
+     * Returns the application-wide transport, configured from resources.
+     */
+    static synchronized HttpTransport get(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            instance = new HttpTransport(app.getResources().getInteger(R.integer.http_connect_timeout_ms),
+                    app.getResources().getInteger(R.integer.http_read_timeout_ms),
+                    app.getResources().getInteger(R.integer.http_max_idle_connections),
+                    app.getResources().getInteger(R.integer.http_min_timeout_ms),
+                    app.getResources().getInteger(R.integer.circuit_failure_threshold),
+                    app.getResources().getInteger(R.integer.circuit_cool_down_ms));
+        }
+        return instance;
+    }
+
+    /**
+     * Creates transport with the given maximum deadlines and idle connection pool size, and default
+     * circuit breaker settings.
+     */
+    HttpTransport(int connectTimeout, int readTimeout, int maxIdleConnections) {
+        this(connectTimeout, readTimeout, maxIdleConnections, DEFAULT_MIN_TIMEOUT, DEFAULT_FAILURE_THRESHOLD,
+                DEFAULT_COOL_DOWN_MILLIS);
+    }
+
+    /**
+     * Creates transport whose deadlines adapt between minTimeout and the given maximums, and whose
+     * circuits open after failureThreshold consecutive failures for coolDownMillis.
+     */
+    HttpTransport(int connectTimeout, int readTimeout, int maxIdleConnections, int minTimeout, int failureThreshold,
+                  long coolDownMillis) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.minTimeout = minTimeout;
+        this.failureThreshold = failureThreshold;
+        this.coolDownMillis = coolDownMillis;
+
+        // Read by the platform HTTP stack when its connection pool is created
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(maxIdleConnections));
+    }
+
+    /**
+     * Returns whether url's endpoint is currently turning requests away.
+     */
+    boolean isRejecting(URL url) {
+        return getHealth(url).isRejecting(now());
+    }
+
+    /**
+     * Sends a GET request and returns the response once its headers have arrived. The body must be
+     * read within the request's total deadline. Throws CircuitOpenException at once if the
+     * endpoint's circuit is open.
+     */
+    Response execute(URL url, Map<String, String> headers, FetchHandle handle) throws IOException {
+        EndpointHealth health = getHealth(url);
+        if (!health.allowRequest(now())) {
+            throw new CircuitOpenException(url.getPath());
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        handle.attach(connection);
+        Exchange exchange = new Exchange(health, connection, handle, health.getTimeout(connectTimeout + readTimeout));
+
+        try {
+            connection.setConnectTimeout(health.getTimeout(connectTimeout));
+            connection.setReadTimeout(health.getTimeout(readTimeout));
+            connection.setUseCaches(false);
+
+            // Setting this explicitly turns off transparent decompression, so we decode below
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            // Connect explicitly so connection setup and time to first byte are measured apart
+            long start = Metrics.start();
+            connection.connect();
+            Metrics.record(Metrics.CONNECT, start);
+
+            start = Metrics.start();
+            int code = connection.getResponseCode();
+            Metrics.record(Metrics.TTFB, start);
+            requestCount.incrementAndGet();
+
+            InputStream stream = code >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? connection.getErrorStream() : connection.getInputStream();
+            if (stream == null) {
+                stream = new ByteArrayInputStream(new byte[0]);
+            }
+
+            CountingInputStream raw = new CountingInputStream(stream, exchange);
+            InputStream body = raw;
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding()) && code != HttpURLConnection.HTTP_NOT_MODIFIED) {
+                body = new GZIPInputStream(raw);
+            }
+
+            return new Response(code, connection, handle, exchange, raw, body);
+        } catch (IOException e) {
+            exchange.finish(e instanceof SocketTimeoutException ? TIMEOUT : FAILURE);
+
+            connection.disconnect();
+            handle.detach(connection);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the health of every endpoint used so far, keyed by host, port and path.
+     */
+    Map<String, EndpointHealth> getEndpoints() {
+        return Collections.unmodifiableMap(new TreeMap<>(endpoints));
+    }
+
+    private EndpointHealth getHealth(URL url) {
+        String key = url.getHost() + ":" + url.getPort() + url.getPath();
+        EndpointHealth health = endpoints.get(key);
+
+        if (health == null) {
+            EndpointHealth created = new EndpointHealth(minTimeout, connectTimeout + readTimeout, failureThreshold,
+                    coolDownMillis);
+            health = endpoints.putIfAbsent(key, created);
+            if (health == null) {
+                health = created;
+            }
+        }
+        return health;
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Returns bytes received over the wire, before decompression.
+     */
+    long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Counts bytes as they come off the socket, fails reads past the request's total deadline, and
+     * remembers the first read error.
+     */
+    private class CountingInputStream extends FilterInputStream {
+
+        private final Exchange exchange;
+        IOException error;
+
+        CountingInputStream(InputStream in, Exchange exchange) {
+            super(in);
+            this.exchange = exchange;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                checkDeadline();
+                int b = super.read();
+                if (b != -1) {
+                    bytesReceived.incrementAndGet();
+                }
+                return b;
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            try {
+                checkDeadline();
+                int read = super.read(buffer, offset, count);
+                if (read > 0) {
+                    bytesReceived.addAndGet(read);
+                }
+                return read;
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        }
+
+        private void checkDeadline() throws SocketTimeoutException {
+            if (exchange.timedOut) {
+                throw new SocketTimeoutException("Request deadline passed");
+            }
+        }
+
+        private void fail(IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Ring buffer of recent latencies in milliseconds, for percentiles that follow current conditions
+ * rather than the whole history.
+ */
+
+import java.util.Arrays;
+
+class LatencyWindow {
+
+    private final long[] samples;
+    private int count;
+    private int next;
+
+    LatencyWindow(int size) {
+        samples = new long[size];
+    }
+
+    synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the latency at percentile over the window, or -1 if it is empty.
+     */
+    synchronized long getPercentile(double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(count * percentile / 100) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Races every enabled location provider for a fix within a deadline. The first usable fix, which
+ * may be a recent last-known one, is delivered immediately so weather can start loading. Later,
+ * more accurate fixes are only delivered if they fall in a different grid cell, since a fix in the
+ * same cell would fetch the same weather.
+ */
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class LocationRace {
+
+    private static final String[] PROVIDERS = {LocationManager.NETWORK_PROVIDER, LocationManager.GPS_PROVIDER};
+
+    private final Context context;
+    private final LocationManager locationManager;
+    private final Callback callback;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<ProviderListener> listeners = new ArrayList<>();
+
+    private Location best;
+    private GeoCell delivered;
+    private boolean finished;
+
+    /**
+     * Receives fixes on the main thread.
+     */
+    interface Callback {
+
+        /**
+         * Called with the first fix, and again when a better fix lands in a different cell.
+         */
+        void onLocation(GeoCell cell, boolean refined);
+
+        /**
+         * Called if no fix arrived before the deadline.
+         */
+        void onTimeout();
+    }
+
+    /**
+     * Listens to one provider; the framework keeps one registration per listener object.
+     */
+    private class ProviderListener implements LocationListener {
+
+        public void onLocationChanged(Location location) {
+            listeners.remove(this);
+            accept(location);
+
+            // GPS is the most accurate source, and there is nothing left to wait for once all have answered
+            if (LocationManager.GPS_PROVIDER.equals(location.getProvider()) || listeners.isEmpty()) {
+                finish();
+            }
+        }
+
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+        }
+
+        public void onProviderEnabled(String provider) {
+        }
+
+        public void onProviderDisabled(String provider) {
+        }
+    }
+
+    private final Runnable deadline = new Runnable() {
+        public void run() {
+            finish();
+
+            if (delivered == null) {
+                callback.onTimeout();
+            }
+        }
+    };
+
+    private LocationRace(Context context, LocationManager locationManager, Callback callback) {
+        this.context = context;
+        this.locationManager = locationManager;
+        this.callback = callback;
+    }
+
+    /**
+     * Starts racing the enabled providers, or returns null if none are enabled. The caller must
+     * already hold the fine location permission.
+     */
+    @SuppressLint("MissingPermission")
+    static LocationRace start(Context context, LocationManager locationManager, Callback callback) {
+        List<String> providers = new ArrayList<>(PROVIDERS.length);
+        for (String provider : PROVIDERS) {
+            if (locationManager.isProviderEnabled(provider)) {
+                providers.add(provider);
+            }
+        }
+
+        if (providers.isEmpty()) {
+            return null;
+        }
+
+        LocationRace race = new LocationRace(context.getApplicationContext(), locationManager, callback);
+        long maxAge = context.getResources().getInteger(R.integer.location_max_age_minutes) * 60 * 1000L;
+
+        // A recent last-known fix gets weather loading with no wait at all
+        Location recent = null;
+        for (String provider : providers) {
+            Location last = locationManager.getLastKnownLocation(provider);
+            if (last != null && System.currentTimeMillis() - last.getTime() < maxAge
+                    && (recent == null || last.getTime() > recent.getTime())) {
+                recent = last;
+            }
+        }
+
+        for (String provider : providers) {
+            ProviderListener listener = race.new ProviderListener();
+            race.listeners.add(listener);
+            locationManager.requestSingleUpdate(provider, listener, Looper.getMainLooper());
+        }
+
+        race.handler.postDelayed(race.deadline, context.getResources().getInteger(R.integer.location_deadline_ms));
+
+        if (recent != null) {
+            race.accept(recent);
+        }
+        return race;
+    }
+
+    /**
+     * Stops listening without delivering anything further.
+     */
+    void cancel() {
+        finish();
+    }
+
+    /**
+     * Delivers location if it is the first fix, or a more accurate fix in a different cell.
+     */
+    private void accept(Location location) {
+        if (finished || (best != null && !isMoreAccurate(location, best))) {
+            return;
+        }
+
+        best = location;
+        GeoCell cell = GeoCell.of(context, location.getLatitude(), location.getLongitude());
+
+        if (delivered == null) {
+            delivered = cell;
+            callback.onLocation(cell, false);
+        } else if (!cell.hash.equals(delivered.hash)) {
+            delivered = cell;
+            callback.onLocation(cell, true);
+        }
+    }
+
+    private void finish() {
+        if (finished) {
+            return;
+        }
+
+        finished = true;
+        handler.removeCallbacks(deadline);
+        for (ProviderListener listener : listeners) {
+            locationManager.removeUpdates(listener);
+        }
+        listeners.clear();
+    }
+
+    private static boolean isMoreAccurate(Location location, Location than) {
+        return location.hasAccuracy() && (!than.hasAccuracy() || location.getAccuracy() < than.getAccuracy());
+    }
+
+}
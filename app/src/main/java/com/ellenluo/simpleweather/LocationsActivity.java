@@ -0,0 +1,167 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Activity listing saved locations with their current conditions. Locations are loaded a page at
+ * a time as the list is scrolled, and each page is fetched as one batch.
+ */
+
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LocationsActivity extends AppCompatActivity {
+
+    // One page fits in a single group request once city ids are known
+    private static final int PAGE_SIZE = RemoteFetch.MAX_GROUP_SIZE;
+
+    // Rows from the end of the list at which the next page starts loading
+    private static final int PREFETCH_DISTANCE = 5;
+
+    private SharedPreferences pref;
+    private RecyclerView rvLocations;
+    private LinearLayoutManager layoutManager;
+    private LocationsAdapter adapter;
+    private TextView tvEmpty;
+
+    private List<SavedLocations.Location> locations;
+    private final List<FetchPipeline.Request> requests = new ArrayList<>();
+    private int loaded;
+    private int pending;
+
+    /**
+     * Sets up list and loads the first page.
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_locations);
+
+        pref = PreferenceManager.getDefaultSharedPreferences(this);
+        tvEmpty = (TextView) findViewById(R.id.locations_empty);
+        rvLocations = (RecyclerView) findViewById(R.id.locations_list);
+
+        layoutManager = new LinearLayoutManager(this);
+        adapter = new LocationsAdapter(Units.get(pref.getBoolean("metric", false)), clickListener);
+
+        rvLocations.setHasFixedSize(true);
+        rvLocations.setLayoutManager(layoutManager);
+        rvLocations.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+        rvLocations.setAdapter(adapter);
+
+        // Load the next page as the end of the list comes into view
+        rvLocations.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                loadMoreIfNeeded();
+            }
+        });
+
+        reload();
+    }
+
+    /**
+     * Cancels outstanding fetches.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        cancelRequests();
+    }
+
+    private final LocationsAdapter.OnLocationClickListener clickListener = new LocationsAdapter.OnLocationClickListener() {
+
+        /**
+         * Makes the location current and returns to the weather screen.
+         */
+        @Override
+        public void onLocationClick(SavedLocations.Location location) {
+            pref.edit()
+                    .putInt("zip", location.query.zipCode)
+                    .putFloat("lat", location.query.lat)
+                    .putFloat("lon", location.query.lon)
+                    .putBoolean("using_lat", location.query.usingLat)
+                    .apply();
+
+            setResult(RESULT_OK);
+            finish();
+        }
+
+        /**
+         * Removes the location from the list.
+         */
+        @Override
+        public void onLocationLongClick(SavedLocations.Location location) {
+            SavedLocations.remove(pref, location.query);
+            Toast.makeText(LocationsActivity.this, getString(R.string.location_removed), Toast.LENGTH_SHORT).show();
+            reload();
+        }
+    };
+
+    /**
+     * Rebuilds the list from saved locations, starting again at the first page.
+     */
+    private void reload() {
+        cancelRequests();
+        adapter.clear();
+        locations = SavedLocations.load(pref);
+        loaded = 0;
+        pending = 0;
+
+        tvEmpty.setVisibility(locations.isEmpty() ? View.VISIBLE : View.GONE);
+        loadNextPage();
+    }
+
+    /**
+     * Loads another page if the previous one is done and the end of the list is near.
+     */
+    private void loadMoreIfNeeded() {
+        if (pending == 0 && layoutManager.findLastVisibleItemPosition() >= adapter.getItemCount() - PREFETCH_DISTANCE) {
+            loadNextPage();
+        }
+    }
+
+    /**
+     * Adds the next page of locations and fetches their conditions as one batch.
+     */
+    private void loadNextPage() {
+        if (loaded >= locations.size()) {
+            return;
+        }
+
+        final int offset = loaded;
+        List<SavedLocations.Location> page = locations.subList(offset, Math.min(offset + PAGE_SIZE, locations.size()));
+        loaded += page.size();
+        pending = page.size();
+        adapter.addPage(page);
+
+        requests.add(FetchPipeline.fetchCurrent(this, page, new FetchPipeline.BatchListener() {
+            @Override
+            public void onLocation(int position, CurrentWeather current) {
+                adapter.setWeather(offset + position, current);
+
+                // Short pages may leave the end of the list on screen without any scrolling
+                if (--pending == 0) {
+                    loadMoreIfNeeded();
+                }
+            }
+        }));
+    }
+
+    private void cancelRequests() {
+        for (FetchPipeline.Request request : requests) {
+            request.cancel();
+        }
+        requests.clear();
+    }
+
+}
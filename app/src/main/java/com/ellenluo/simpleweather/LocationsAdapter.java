@@ -0,0 +1,167 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * RecyclerView adapter used to populate saved locations list. Rows are added a page at a time and
+ * filled in as their conditions arrive.
+ */
+
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseBooleanArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class LocationsAdapter extends RecyclerView.Adapter<LocationsAdapter.ViewHolder> {
+
+    private final List<SavedLocations.Location> locations = new ArrayList<>();
+    private final List<CurrentWeather> weather = new ArrayList<>();
+    private final SparseBooleanArray failed = new SparseBooleanArray();
+    private final Units units;
+    private final OnLocationClickListener listener;
+
+    /**
+     * Receives row clicks.
+     */
+    interface OnLocationClickListener {
+
+        void onLocationClick(SavedLocations.Location location);
+
+        void onLocationLongClick(SavedLocations.Location location);
+    }
+
+    /**
+     * Provide a reference to the views for each data item.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+
+        TextView tvName;
+        TextView tvConditions;
+        TextView tvTemperature;
+        TextView tvIcon;
+
+        ViewHolder(View v) {
+            super(v);
+
+            // Initialize components
+            tvName = (TextView) v.findViewById(R.id.name_location);
+            tvConditions = (TextView) v.findViewById(R.id.conditions_location);
+            tvTemperature = (TextView) v.findViewById(R.id.temperature_location);
+            tvIcon = (TextView) v.findViewById(R.id.icon_location);
+        }
+    }
+
+    /**
+     * Constructs empty adapter displaying temperatures in units.
+     */
+    LocationsAdapter(Units units, OnLocationClickListener listener) {
+        this.units = units;
+        this.listener = listener;
+    }
+
+    /**
+     * Appends a page of locations whose conditions are still loading.
+     */
+    void addPage(List<SavedLocations.Location> page) {
+        int start = locations.size();
+        locations.addAll(page);
+        for (int i = 0; i < page.size(); i++) {
+            weather.add(null);
+        }
+        notifyItemRangeInserted(start, page.size());
+    }
+
+    /**
+     * Sets conditions for the row at position, or marks it failed if current is null.
+     */
+    void setWeather(int position, CurrentWeather current) {
+        weather.set(position, current);
+        failed.put(position, current == null);
+        notifyItemChanged(position);
+    }
+
+    /**
+     * Removes all rows.
+     */
+    void clear() {
+        int count = locations.size();
+        locations.clear();
+        weather.clear();
+        failed.clear();
+        notifyItemRangeRemoved(0, count);
+    }
+
+    /**
+     * Creates new views (invoked by the layout manager).
+     */
+    @Override
+    public LocationsAdapter.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View itemView = LayoutInflater.from(parent.getContext()).inflate(R.layout.location_row, parent, false);
+
+        final ViewHolder holder = new ViewHolder(itemView);
+
+        // Set up fonts
+        holder.tvIcon.setTypeface(WeatherIcons.get(parent.getContext()).getTypeface());
+
+        itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    listener.onLocationClick(locations.get(position));
+                }
+            }
+        });
+
+        itemView.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    listener.onLocationLongClick(locations.get(position));
+                }
+                return true;
+            }
+        });
+
+        return holder;
+    }
+
+    /**
+     * Replace the contents of a view.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        SavedLocations.Location location = locations.get(position);
+        CurrentWeather current = weather.get(position);
+
+        if (current == null) {
+            holder.tvName.setText(location.name);
+            holder.tvConditions.setText(failed.get(position) ? R.string.error_row_empty : R.string.loading);
+            holder.tvTemperature.setText(null);
+            holder.tvIcon.setText(null);
+            return;
+        }
+
+        holder.tvName.setText(current.city + ", " + current.country);
+        holder.tvConditions.setText(current.description.toUpperCase());
+        holder.tvTemperature.setText(units.appendTemperature(new StringBuilder(), current.temperature).append('°'));
+
+        // Night/day icons for clear skies
+        long now = System.currentTimeMillis();
+        boolean day = now >= current.sunrise && now < current.sunset;
+        holder.tvIcon.setText(WeatherIcons.get(holder.itemView.getContext()).getGlyphs().get(current.conditionId, day));
+    }
+
+    /**
+     * Return the size of data set.
+     */
+    @Override
+    public int getItemCount() {
+        return locations.size();
+    }
+
+}
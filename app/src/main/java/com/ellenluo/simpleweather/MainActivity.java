@@ -8,12 +8,10 @@ import android.Manifest;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.graphics.Point;
-import android.location.Criteria;
-import android.location.Location;
-import android.location.LocationListener;
 import android.location.LocationManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
@@ -22,6 +20,7 @@ import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.NotificationCompat;
+import android.support.v4.os.TraceCompat;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
@@ -38,21 +37,49 @@ import android.widget.Toast;
 public class MainActivity extends AppCompatActivity {
 
     LocationManager locationManager;
+    private LocationRace locationRace;
 
     SharedPreferences pref;
 
     private static final int PERMISSIONS_REQUEST_FINE_LOCATION = 0;
+    private static final int REQUEST_SAVED_LOCATION = 1;
 
     /**
      * Initializes application.
      */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_main);
+        TraceCompat.beginSection("MainActivity.onCreate");
 
-        // Check for network connection
-        checkNetwork();
+        try {
+            super.onCreate(savedInstanceState);
+            setContentView(R.layout.activity_main);
+            Startup.watchFirstFrame(this);
+
+            // Show last saved weather right away, then check for network connection once it is drawn
+            displayWeatherData();
+            Startup.runAfterFirstFrame(new Runnable() {
+                public void run() {
+                    if (!isFinishing()) {
+                        checkNetwork();
+                    }
+                }
+            });
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Stops waiting for a location fix.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        if (locationRace != null) {
+            locationRace.cancel();
+        }
     }
 
     /**
@@ -61,6 +88,7 @@ public class MainActivity extends AppCompatActivity {
     @Override
     public boolean onCreateOptionsMenu(final Menu menu) {
         getMenuInflater().inflate(R.menu.action_bar, menu);
+        menu.findItem(R.id.metrics).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -73,12 +101,30 @@ public class MainActivity extends AppCompatActivity {
             showChangeLocationDialog();
         } else if (item.getItemId() == R.id.refresh) {
             refreshData();
+        } else if (item.getItemId() == R.id.save_location) {
+            saveCurrentLocation();
+        } else if (item.getItemId() == R.id.saved_locations) {
+            startActivityForResult(new Intent(this, LocationsActivity.class), REQUEST_SAVED_LOCATION);
+        } else if (item.getItemId() == R.id.metrics) {
+            startActivity(new Intent(this, MetricsActivity.class));
         } else {
             showChangeUnitsDialog();
         }
         return false;
     }
 
+    /**
+     * Refreshes weather after a saved location was picked.
+     */
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+
+        if (requestCode == REQUEST_SAVED_LOCATION && resultCode == RESULT_OK) {
+            refreshData();
+        }
+    }
+
     /**
      * Called when location permission granted (or denied).
      */
@@ -98,20 +144,18 @@ public class MainActivity extends AppCompatActivity {
     /**
      * Checks if network connected.
      */
-    private boolean isNetworkConnected() {
-        ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+    static boolean isNetworkConnected(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         NetworkInfo networkInfo = cm.getActiveNetworkInfo();
         return networkInfo != null && networkInfo.isConnected();
     }
 
     /**
-     * Displays a warning if network not connected, or gets weather data.
+     * Displays a warning if network not connected.
      */
     private void checkNetwork() {
-        if (!isNetworkConnected()) {
+        if (!isNetworkConnected(this)) {
             displayNetworkWarning();
-        } else {
-            displayWeatherData();
         }
     }
 
@@ -123,12 +167,17 @@ public class MainActivity extends AppCompatActivity {
 
         dialog.setTitle(getString(R.string.error_no_network));
         dialog.setMessage(getString(R.string.error_no_network_details));
-        dialog.setCancelable(false);
 
+        // Saved weather stays visible behind the dialog, so it can be dismissed
         dialog.setPositiveButton(getString(R.string.retry), new DialogInterface.OnClickListener() {
             public void onClick(DialogInterface dialog, int which) {
                 dialog.dismiss();
-                checkNetwork();
+
+                if (isNetworkConnected(MainActivity.this)) {
+                    refreshData();
+                } else {
+                    displayNetworkWarning();
+                }
             }
         });
 
@@ -141,21 +190,11 @@ public class MainActivity extends AppCompatActivity {
     private void displayWeatherData() {
         pref = PreferenceManager.getDefaultSharedPreferences(this);
         locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
-        getSupportFragmentManager().beginTransaction().add(R.id.container, new MainFragment()).commit();
-    }
 
-    /**
-     * Checks if GPS enabled.
-     */
-    private boolean isLocationGPSEnabled() {
-        return locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER);
-    }
-
-    /**
-     * Checks if network location enabled.
-     */
-    private boolean isLocationNetworkEnabled() {
-        return locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
+        // Fragment is restored automatically after recreation
+        if (getSupportFragmentManager().findFragmentById(R.id.container) == null) {
+            getSupportFragmentManager().beginTransaction().add(R.id.container, new MainFragment()).commit();
+        }
     }
 
     /**
@@ -177,69 +216,85 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Gets current user location using GPS or network.
+     * Gets current user location, racing network and GPS. Weather loads from the first fix and only
+     * reloads if a more accurate fix lands in a different grid cell.
      */
     private void getCurrentLocation() {
-        if (isLocationGPSEnabled() || isLocationNetworkEnabled()) {
-            // Location listener
-            LocationListener locationListener = new LocationListener() {
-                public void onLocationChanged(Location location) {
-                    if (location != null) {
-                        // Store current location with latitude/longitude
-                        pref.edit().putFloat("lat", (float) location.getLatitude()).apply();
-                        pref.edit().putFloat("lon", (float) location.getLongitude()).apply();
-                        pref.edit().putBoolean("using_lat", true).apply();
-                        refreshData();
-                    }
-                }
-
-                public void onStatusChanged(String provider, int status, Bundle extras) {
-                }
+        if (!checkLocationPermission()) {
+            // Unexpected error
+            Toast.makeText(this, getString(R.string.error_unexpected), Toast.LENGTH_LONG).show();
+            return;
+        }
 
-                public void onProviderEnabled(String provider) {
-                }
+        if (locationRace != null) {
+            locationRace.cancel();
+        }
 
-                public void onProviderDisabled(String provider) {
+        final long requested = Metrics.start();
+        locationRace = LocationRace.start(this, locationManager, new LocationRace.Callback() {
+            @Override
+            public void onLocation(GeoCell cell, boolean refined) {
+                if (!refined) {
+                    Metrics.markLocationFix(requested);
                 }
-            };
 
-            String provider = locationManager.getBestProvider(new Criteria(), false);
-
-            if (checkLocationPermission()) {
-                // Check last know location before collecting location data
-                Location lastKnownLocation = locationManager.getLastKnownLocation(provider);
+                saveLocation(cell);
+                refreshData();
+            }
 
-                if (lastKnownLocation != null) {
-                    // Store current location with latitude/longitude
-                    pref.edit().putFloat("lat", (float) lastKnownLocation.getLatitude()).apply();
-                    pref.edit().putFloat("lon", (float) lastKnownLocation.getLongitude()).apply();
-                    pref.edit().putBoolean("using_lat", true).apply();
-                    refreshData();
-                } else {
-                    if (isLocationGPSEnabled()) {
-                        // Request location data from GPS if possible
-                        locationManager.requestSingleUpdate(LocationManager.GPS_PROVIDER, locationListener, null);
-                    } else {
-                        // Request location data from network
-                        locationManager.requestSingleUpdate(LocationManager.NETWORK_PROVIDER, locationListener, null);
-                    }
-                }
-            } else {
-                // Unexpected error
-                Toast.makeText(this, getString(R.string.error_unexpected), Toast.LENGTH_LONG).show();
+            @Override
+            public void onTimeout() {
+                Toast.makeText(MainActivity.this, getString(R.string.error_location), Toast.LENGTH_LONG).show();
             }
-        } else {
+        });
+
+        if (locationRace == null) {
             // Display location services off error
             Toast.makeText(this, getString(R.string.error_location_off), Toast.LENGTH_LONG).show();
         }
     }
 
+    /**
+     * Stores location snapped to its grid cell, so nearby fixes share one cached result.
+     */
+    private void saveLocation(GeoCell cell) {
+        pref.edit()
+                .putFloat("lat", cell.lat)
+                .putFloat("lon", cell.lon)
+                .putBoolean("using_lat", true)
+                .apply();
+    }
+
+    /**
+     * Adds the displayed location to the saved locations list.
+     */
+    private void saveCurrentLocation() {
+        MainFragment fragment = (MainFragment) getSupportFragmentManager().findFragmentById(R.id.container);
+        CurrentWeather current = fragment == null ? null : fragment.getCurrentWeather();
+
+        if (current == null) {
+            Toast.makeText(this, getString(R.string.error_row_empty), Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        // City id is learned on the first list refresh, in case the display still shows a previous location
+        SavedLocations.add(pref, new SavedLocations.Location(WeatherQuery.fromPreferences(pref), 0, current.city));
+        Toast.makeText(this, getString(R.string.location_saved), Toast.LENGTH_SHORT).show();
+    }
+
     /**
      * Refreshes weather data if network connection found.
      */
     private void refreshData() {
-        if (isNetworkConnected()) {
-            getSupportFragmentManager().beginTransaction().replace(R.id.container, new MainFragment()).commit();
+        if (isNetworkConnected(this)) {
+            MainFragment fragment = (MainFragment) getSupportFragmentManager().findFragmentById(R.id.container);
+
+            // Update existing fragment in place rather than rebuilding the screen
+            if (fragment != null) {
+                fragment.refresh();
+            } else {
+                displayWeatherData();
+            }
         } else {
             // Unable to update error message
             Toast.makeText(MainActivity.this, getString(R.string.error_no_network_update), Toast.LENGTH_LONG).show();
@@ -282,8 +337,7 @@ public class MainActivity extends AppCompatActivity {
             public void onClick(View v) {
                 try {
                     int zip = Integer.parseInt(etZip.getText().toString());
-                    pref.edit().putInt("zip", zip).apply();
-                    pref.edit().putBoolean("using_lat", false).apply();
+                    pref.edit().putInt("zip", zip).putBoolean("using_lat", false).apply();
                 } catch (Exception e) {
                     Toast.makeText(MainActivity.this, getString(R.string.error_location), Toast.LENGTH_LONG).show();
                 }
@@ -354,7 +408,12 @@ public class MainActivity extends AppCompatActivity {
                 }
 
                 dialog.dismiss();
-                refreshData();
+
+                // Data is held in canonical units, so re-render without fetching
+                MainFragment fragment = (MainFragment) getSupportFragmentManager().findFragmentById(R.id.container);
+                if (fragment != null) {
+                    fragment.updateUnits();
+                }
             }
         });
 
@@ -1,58 +1,60 @@
 package com.ellenluo.simpleweather;
 
 /**
- * Fragment used to display current weather conditions and forecast.
+ * Fragment used to display current weather conditions and forecast. Fetching is owned by
+ * WeatherDataFragment, which outlives this fragment's views.
  */
 
 import android.content.SharedPreferences;
-import android.graphics.Typeface;
 import android.os.Bundle;
-import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.support.v4.app.Fragment;
+import android.support.v4.os.TraceCompat;
 import android.support.v7.widget.DividerItemDecoration;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import org.json.JSONObject;
-
 import java.util.Date;
 
 public class MainFragment extends Fragment {
 
-    private Typeface tfWeatherIcons;
-
     private TextView tvCityCurrent;
     private TextView tvTemperatureCurrent;
     private TextView tvIconCurrent;
     private TextView tvDetailsCurrent;
     private TextView tvConditionsCurrent;
+    private TextView tvUpdatedCurrent;
 
     private RecyclerView rvForecast;
+    private ForecastAdapter forecastAdapter;
 
-    private Handler handler;
+    private WeatherDataFragment data;
 
     private SharedPreferences pref;
 
-    private String unitWind;
-
-    /**
-     * Initializes handler.
-     */
-    public MainFragment() {
-        handler = new Handler();
-    }
+    private Units units;
 
     /**
      * Initializes elements.
      */
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        TraceCompat.beginSection("MainFragment.onCreateView");
+
+        try {
+            return createView(inflater, container);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    private View createView(LayoutInflater inflater, ViewGroup container) {
         View v = inflater.inflate(R.layout.fragment_main, container, false);
 
         tvCityCurrent = (TextView) v.findViewById(R.id.city_current);
@@ -60,10 +62,14 @@ public class MainFragment extends Fragment {
         tvIconCurrent = (TextView) v.findViewById(R.id.icon_current);
         tvDetailsCurrent = (TextView) v.findViewById(R.id.details_current);
         tvConditionsCurrent = (TextView) v.findViewById(R.id.conditions_current);
+        tvUpdatedCurrent = (TextView) v.findViewById(R.id.updated_current);
         rvForecast = (RecyclerView) v.findViewById(R.id.forecast_list);
 
         setUpForecast();
 
+        // Results already held, for example from before a rotation, are replayed right away
+        data.setObserver(listener);
+
         return v;
     }
 
@@ -73,29 +79,82 @@ public class MainFragment extends Fragment {
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        tfWeatherIcons = Typeface.createFromAsset(getActivity().getAssets(), "fonts/weathericons.ttf");
 
         pref = PreferenceManager.getDefaultSharedPreferences(getActivity());
 
-        getUnits();
+        // Show last saved result, then update weather data with either GPS coordinates or zip code.
+        // Preferences are only read once the first frame is up, so it never waits on them.
+        // Recreated fragments reuse the retained data, and its units, instead.
+        data = WeatherDataFragment.get(getFragmentManager());
+        if (data.needsFetch()) {
+            Startup.runAfterFirstFrame(new Runnable() {
+                public void run() {
+                    if (isAdded()) {
+                        getUnits();
+                        startWeatherData();
+                    }
+                }
+            });
+        } else {
+            units = data.getUnits();
+        }
+    }
 
-        // Update weather data with either GPS coordinates or zip code
-        if (pref.getBoolean("using_lat", false)) {
-            updateWeatherData(0, pref.getFloat("lat", 0), pref.getFloat("lon", 0), true, pref.getBoolean("metric", false));
+    /**
+     * Starts the first update. Offline, only the saved result is shown and the activity offers a retry.
+     */
+    private void startWeatherData() {
+        WeatherQuery query = WeatherQuery.fromPreferences(pref);
+        if (MainActivity.isNetworkConnected(getActivity())) {
+            updateWeatherData(query, true);
         } else {
-            updateWeatherData(pref.getInt("zip", 94720), 0, 0, false, pref.getBoolean("metric", false));
+            data.showSnapshot(getActivity(), query, units);
         }
     }
 
     /**
-     * Sets the appropriate wind speed units.
+     * Refetches weather data for the saved location and units, updating views in place.
+     */
+    public void refresh() {
+        getUnits();
+        updateWeatherData(WeatherQuery.fromPreferences(pref), false);
+    }
+
+    /**
+     * Stops receiving results; fetches in flight keep running for the next view.
+     */
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        data.setObserver(null);
+    }
+
+    /**
+     * Returns the displayed current conditions, or null if none have loaded yet.
+     */
+    CurrentWeather getCurrentWeather() {
+        return data.getCurrentWeather();
+    }
+
+    /**
+     * Sets the display units from preferences.
      */
     private void getUnits() {
-        if (pref.getBoolean("metric", false)) {
-            unitWind = "m/s";
-        } else {
-            unitWind = "mph";
+        units = Units.get(pref.getBoolean("metric", false));
+    }
+
+    /**
+     * Re-renders data in memory with the saved display units.
+     */
+    public void updateUnits() {
+        getUnits();
+
+        CurrentWeather current = data.getCurrentWeather();
+        if (current != null) {
+            updateCurrentWeather(current);
         }
+
+        data.reformat(getActivity(), units);
     }
 
     /**
@@ -109,129 +168,85 @@ public class MainFragment extends Fragment {
         // Dividers between elements
         DividerItemDecoration dividerItemDecoration = new DividerItemDecoration(rvForecast.getContext(), DividerItemDecoration.VERTICAL);
         rvForecast.addItemDecoration(dividerItemDecoration);
+
+        // Adapter is kept for the life of the view and updated as forecasts arrive
+        forecastAdapter = new ForecastAdapter();
+        rvForecast.setAdapter(forecastAdapter);
     }
 
-    /* Updates weather data asynchronously by fetching JSON from Open Weather Map. */
-    public void updateWeatherData(final int zipCode, final float lat, final float lon, final boolean usingLat, final boolean metric) {
-        new Thread() {
-            public void run() {
-                // Get current conditions
-                final JSONObject current;
-
-                if (usingLat) {
-                    current = RemoteFetch.getJSON(getActivity(), lat, lon, false, metric);
-                } else {
-                    current = RemoteFetch.getJSON(getActivity(), zipCode, false, metric);
-                }
+    /**
+     * Updates weather data asynchronously, fetching current conditions and forecast in parallel.
+     */
+    public void updateWeatherData(WeatherQuery query, boolean showSnapshot) {
+        data.fetch(getActivity(), query, units, showSnapshot);
+    }
 
-                if (current == null) {
-                    handler.post(new Runnable() {
-                        public void run() {
-                            Toast.makeText(getActivity(), getActivity().getString(R.string.error_location), Toast.LENGTH_LONG).show();
-                        }
-                    });
-                } else {
-                    handler.post(new Runnable() {
-                        public void run() {
-                            updateCurrentWeather(current);
-                        }
-                    });
-                }
+    /**
+     * Receives fetch results on the main thread while this fragment's views exist.
+     */
+    private final FetchPipeline.Listener listener = new FetchPipeline.Listener() {
+        @Override
+        public void onCurrentWeather(CurrentWeather current) {
+            updateCurrentWeather(current);
+        }
 
-                // Get forecast
-                final JSONObject forecast;
+        @Override
+        public void onForecast(Forecast forecast, ForecastFormatter.Rows rows) {
+            forecastAdapter.setRows(rows);
+        }
 
-                if (usingLat) {
-                    forecast = RemoteFetch.getJSON(getActivity(), lat, lon, true, metric);
-                } else {
-                    forecast = RemoteFetch.getJSON(getActivity(), zipCode, true, metric);
-                }
+        @Override
+        public void onUpdated(long time) {
+            CharSequence ago = DateUtils.getRelativeTimeSpanString(time, System.currentTimeMillis(),
+                    DateUtils.MINUTE_IN_MILLIS);
+            tvUpdatedCurrent.setText(getString(R.string.updated, ago));
+        }
 
-                if (forecast == null) {
-                    handler.post(new Runnable() {
-                        public void run() {
-                            Toast.makeText(getActivity(), getActivity().getString(R.string.error_location), Toast.LENGTH_LONG).show();
-                        }
-                    });
-                } else {
-                    handler.post(new Runnable() {
-                        public void run() {
-                            RecyclerView.Adapter listAdapter = new ForecastAdapter(forecast);
-                            rvForecast.setAdapter(listAdapter);
-                        }
-                    });
-                }
-            }
-        }.start();
-    }
+        @Override
+        public void onError() {
+            Toast.makeText(getActivity(), getActivity().getString(R.string.error_location), Toast.LENGTH_LONG).show();
+        }
+    };
 
     /**
      * Updates current weather fields.
      */
-    private void updateCurrentWeather(JSONObject json) {
-        try {
-            JSONObject details = json.getJSONArray("weather").getJSONObject(0);
-            JSONObject main = json.getJSONObject("main");
-
-            tvCityCurrent.setText(json.getString("name") + ", " + json.getJSONObject("sys").getString("country"));
-            tvConditionsCurrent.setText(details.getString("description").toUpperCase());
-            tvTemperatureCurrent.setText(Math.round(main.getDouble("temp")) + "°");
-
-            // Set details
-            String humidity = getString(R.string.humidity) + " " + main.getString("humidity") + "%";
-            String pressure = getString(R.string.pressure) + " " + main.getString("pressure") + " hPa";
-            String windSpeed = getString(R.string.wind_speed) + " " + json.getJSONObject("wind").getString("speed") + " " + unitWind;
-            tvDetailsCurrent.setText(humidity + "\n" + pressure + "\n" + windSpeed);
-
-            // Set icon
-            setWeatherIcon(details.getInt("id"), json.getJSONObject("sys").getLong("sunrise") * 1000, json.getJSONObject("sys").getLong("sunset") * 1000);
-        } catch (Exception e) {
-            // Display error message
-            Toast.makeText(getActivity(), getString(R.string.error_unexpected), Toast.LENGTH_LONG).show();
-        }
+    private void updateCurrentWeather(CurrentWeather weather) {
+        long start = Metrics.start();
+        long allocated = Metrics.startAllocations();
+
+        tvCityCurrent.setText(weather.city + ", " + weather.country);
+        tvConditionsCurrent.setText(weather.description.toUpperCase());
+        tvTemperatureCurrent.setText(units.appendTemperature(new StringBuilder(), weather.temperature).append('°'));
+
+        // Set details
+        StringBuilder details = new StringBuilder(64);
+        details.append(getString(R.string.humidity)).append(' ').append(weather.humidity).append("%\n");
+        units.appendPressure(details.append(getString(R.string.pressure)).append(' '), weather.pressure).append('\n');
+        units.appendWindSpeed(details.append(getString(R.string.wind_speed)).append(' '), weather.windSpeed);
+        tvDetailsCurrent.setText(details);
+
+        // Set icon
+        setWeatherIcon(weather.conditionId, weather.sunrise, weather.sunset);
+
+        Metrics.record(Metrics.BIND_CURRENT, start);
+        Metrics.recordAllocations(Metrics.BIND_CURRENT, allocated);
+        Startup.onFirstContent();
+        Metrics.markWeatherShown();
     }
 
     /**
      * Sets appropriate weather icon.
      */
     private void setWeatherIcon(int actualId, long sunrise, long sunset) {
-        int id = actualId / 100;
-        String icon = "";
-        if (actualId == 800) {
-            // Night/day icons
-            long currentTime = new Date().getTime();
-            if (currentTime >= sunrise && currentTime < sunset) {
-                icon = getActivity().getString(R.string.weather_sunny);
-            } else {
-                icon = getActivity().getString(R.string.weather_clear_night);
-            }
-        } else {
-            // Weather condition icons
-            switch (id) {
-                case 2:
-                    icon = getActivity().getString(R.string.weather_thunder);
-                    break;
-                case 3:
-                    icon = getActivity().getString(R.string.weather_drizzle);
-                    break;
-                case 7:
-                    icon = getActivity().getString(R.string.weather_foggy);
-                    break;
-                case 8:
-                    icon = getActivity().getString(R.string.weather_cloudy);
-                    break;
-                case 6:
-                    icon = getActivity().getString(R.string.weather_snowy);
-                    break;
-                case 5:
-                    icon = getActivity().getString(R.string.weather_rainy);
-                    break;
-            }
-        }
-
-        // Set icon
-        tvIconCurrent.setTypeface(tfWeatherIcons);
-        tvIconCurrent.setText(icon);
+        // Night/day icons for clear skies
+        long currentTime = new Date().getTime();
+        boolean day = currentTime >= sunrise && currentTime < sunset;
+
+        // Font is loaded in the background at startup, so it is normally ready by the time data arrives
+        WeatherIcons icons = WeatherIcons.get(getActivity());
+        tvIconCurrent.setTypeface(icons.getTypeface());
+        tvIconCurrent.setText(icons.getGlyphs().get(actualId, day));
     }
 
 }
@@ -0,0 +1,340 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Low-overhead timing histograms for each stage of the fetch-parse-render path, plus a text dump
+ * that also includes transport and cache counters. Recording is lock-free so it can stay enabled
+ * in release builds. Debug builds also count bytes allocated by the parse and bind stages.
+ */
+
+import android.content.Context;
+import android.os.Debug;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+class Metrics {
+
+    // Stages, in the order they are dumped
+    static final String CONNECT = "connect";
+    static final String TTFB = "ttfb";
+    static final String BODY = "body";
+    static final String PARSE = "parse";
+    static final String BIND_CURRENT = "bind_current";
+    static final String BIND_ROW = "bind_row";
+    static final String FIRST_FRAME = "first_frame";
+    static final String FIRST_CONTENT = "first_content";
+    static final String LOCATION_FIX = "loc_fix";
+    static final String LOCATION_WEATHER = "loc_weather";
+
+    private static final String[] STAGES = {CONNECT, TTFB, BODY, PARSE, BIND_CURRENT, BIND_ROW, FIRST_FRAME,
+            FIRST_CONTENT, LOCATION_FIX, LOCATION_WEATHER};
+
+    // Stages whose allocations are counted
+    private static final String[] ALLOCATION_STAGES = {PARSE, BIND_CURRENT, BIND_ROW};
+
+    // Filled once and never modified, so lookups need no locking
+    private static final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    private static final Map<String, Allocations> allocations = new LinkedHashMap<>();
+
+    private static volatile boolean countingAllocations;
+
+    private static volatile long startNanos;
+    private static volatile long forecastFootprint;
+    private static volatile int forecastSize;
+    private static final AtomicBoolean frameDrawn = new AtomicBoolean();
+    private static final AtomicBoolean contentShown = new AtomicBoolean();
+
+    // When the location whose weather is awaited was requested, or 0
+    private static final AtomicLong locationRequested = new AtomicLong();
+
+    static {
+        for (String stage : STAGES) {
+            histograms.put(stage, new Histogram());
+        }
+        for (String stage : ALLOCATION_STAGES) {
+            allocations.put(stage, new Allocations());
+        }
+    }
+
+    /**
+     * Bytes allocated by one stage, summed over its runs.
+     */
+    static class Allocations {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long allocated) {
+            count.incrementAndGet();
+            bytes.addAndGet(allocated);
+
+            long current;
+            while (allocated > (current = max.get()) && !max.compareAndSet(current, allocated)) {
+                // Retry until max is at least allocated
+            }
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        long getMean() {
+            long total = count.get();
+            return total == 0 ? 0 : bytes.get() / total;
+        }
+
+        long getMax() {
+            return max.get();
+        }
+    }
+
+    /**
+     * Histogram of durations with power-of-two microsecond buckets.
+     */
+    static class Histogram {
+
+        // Bucket i holds durations below 2^i microseconds; the last one is unbounded
+        private static final int BUCKETS = 32;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Records a duration in microseconds.
+         */
+        void record(long micros) {
+            int bucket = micros <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+            counts.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(micros);
+
+            long current;
+            while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+                // Retry until max is at least micros
+            }
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Returns an upper bound on the given percentile in microseconds, or 0 if nothing was recorded.
+         */
+        long getPercentile(double percentile) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(1L << i, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        long getMean() {
+            long total = count.get();
+            return total == 0 ? 0 : sum.get() / total;
+        }
+
+        long getMax() {
+            return max.get();
+        }
+    }
+
+    /**
+     * Returns a timestamp to pass to record.
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since start for stage.
+     */
+    static void record(String stage, long start) {
+        histograms.get(stage).record((System.nanoTime() - start) / 1000);
+    }
+
+    /**
+     * Records a duration in nanoseconds for stage.
+     */
+    static void recordNanos(String stage, long nanos) {
+        histograms.get(stage).record(nanos / 1000);
+    }
+
+    /**
+     * Starts counting allocations per thread. Counting slows every allocation in the process, so
+     * only debug builds turn it on.
+     */
+    @SuppressWarnings("deprecation")
+    static void enableAllocationCounting() {
+        Debug.startAllocCounting();
+        countingAllocations = true;
+    }
+
+    /**
+     * Returns a count of bytes allocated by this thread to pass to recordAllocations, or 0 if
+     * allocations are not being counted.
+     */
+    @SuppressWarnings("deprecation")
+    static long startAllocations() {
+        return countingAllocations ? Debug.getThreadAllocSize() : 0;
+    }
+
+    /**
+     * Records the bytes this thread allocated since startAllocations for stage.
+     */
+    @SuppressWarnings("deprecation")
+    static void recordAllocations(String stage, long start) {
+        if (countingAllocations) {
+            long allocated = Debug.getThreadAllocSize() - start;
+
+            // The counter is an int and may have wrapped
+            if (allocated >= 0) {
+                allocations.get(stage).record(allocated);
+            }
+        }
+    }
+
+    static Histogram get(String stage) {
+        return histograms.get(stage);
+    }
+
+    /**
+     * Records the estimated heap footprint of the most recently decoded forecast.
+     */
+    static void recordForecast(Forecast forecast) {
+        forecastSize = forecast.size();
+        forecastFootprint = forecast.getFootprint();
+    }
+
+    /**
+     * Marks process start, on the System.nanoTime clock, as the origin for startup stages.
+     */
+    static void markStart(long nanos) {
+        startNanos = nanos;
+    }
+
+    /**
+     * Records time to first frame, returning it in milliseconds, or -1 if already recorded.
+     */
+    static long markFirstFrame() {
+        return markOnce(FIRST_FRAME, frameDrawn);
+    }
+
+    /**
+     * Records time until weather is first shown, returning it in milliseconds, or -1 if already recorded.
+     */
+    static long markFirstContent() {
+        return markOnce(FIRST_CONTENT, contentShown);
+    }
+
+    /**
+     * Records time from a location request to its first fix, and starts waiting for its weather.
+     */
+    static void markLocationFix(long requested) {
+        record(LOCATION_FIX, requested);
+        locationRequested.set(requested);
+    }
+
+    /**
+     * Records time from a location request to its weather being shown, if one is awaited.
+     */
+    static void markWeatherShown() {
+        long requested = locationRequested.getAndSet(0);
+        if (requested != 0) {
+            record(LOCATION_WEATHER, requested);
+        }
+    }
+
+    private static long markOnce(String stage, AtomicBoolean marked) {
+        if (startNanos == 0 || !marked.compareAndSet(false, true)) {
+            return -1;
+        }
+
+        long nanos = System.nanoTime() - startNanos;
+        recordNanos(stage, nanos);
+        return nanos / 1000000;
+    }
+
+    /**
+     * Returns all histograms and counters as plain text.
+     */
+    static String dump(Context context) {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append(String.format(Locale.US, "%-13s %6s %9s %9s %9s %9s%n", "stage (ms)", "count", "p50", "p95", "max",
+                "mean"));
+
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram h = entry.getValue();
+            sb.append(String.format(Locale.US, "%-13s %6d %9.1f %9.1f %9.1f %9.1f%n", entry.getKey(), h.getCount(),
+                    h.getPercentile(50) / 1000.0, h.getPercentile(95) / 1000.0, h.getMax() / 1000.0,
+                    h.getMean() / 1000.0));
+        }
+
+        if (countingAllocations) {
+            sb.append('\n');
+            sb.append(String.format(Locale.US, "%-13s %6s %9s %9s%n", "alloc (bytes)", "count", "mean", "max"));
+            for (Map.Entry<String, Allocations> entry : allocations.entrySet()) {
+                Allocations a = entry.getValue();
+                sb.append(String.format(Locale.US, "%-13s %6d %9d %9d%n", entry.getKey(), a.getCount(), a.getMean(),
+                        a.getMax()));
+            }
+        }
+
+        HttpTransport transport = HttpTransport.get(context);
+        ResponseCache cache = ResponseCache.get(context);
+
+        sb.append('\n');
+        sb.append("requests      ").append(transport.getRequestCount()).append('\n');
+        sb.append("bytes in      ").append(transport.getBytesReceived()).append('\n');
+        sb.append("cache hits    ").append(cache.getHitCount()).append('\n');
+        sb.append("cache misses  ").append(cache.getMissCount()).append('\n');
+        sb.append("revalidated   ").append(cache.getRevalidationCount()).append('\n');
+        sb.append("cache size    ").append(cache.getSize()).append('\n');
+        sb.append("coalesced     ").append(RemoteFetch.getCoalescedCount()).append('\n');
+
+        for (Map.Entry<String, EndpointHealth> endpoint : transport.getEndpoints().entrySet()) {
+            sb.append(endpoint.getKey()).append("\n  ").append(endpoint.getValue()).append('\n');
+        }
+
+        WeatherProvider provider = WeatherProviders.get(context);
+        sb.append("provider      ").append(provider.getName()).append('\n');
+        if (provider instanceof HedgedProvider) {
+            HedgedProvider hedged = (HedgedProvider) provider;
+            sb.append("hedged        ").append(hedged.getHedgedCount()).append('\n');
+            sb.append("hedge wins    ").append(hedged.getSecondaryWinCount()).append('\n');
+            sb.append("hedge delay   ").append(hedged.getCurrentDelay()).append(" / ")
+                    .append(hedged.getForecastDelay()).append(" ms\n");
+        }
+
+        RequestBudget budget = RequestBudget.get(context);
+        sb.append("api granted   ").append(budget.getGrantedCount()).append('\n');
+        sb.append("api waited    ").append(budget.getWaitedCount()).append('\n');
+        sb.append("api stale     ").append(budget.getStaleCount()).append('\n');
+        sb.append("api denied    ").append(budget.getDeniedCount()).append('\n');
+        sb.append("api tokens    ").append(String.format(Locale.US, "%.1f", budget.getAvailable())).append('\n');
+        sb.append("frame budget  ").append(context.getResources().getInteger(R.integer.startup_first_frame_budget_ms))
+                .append(" ms\n");
+        sb.append("content budget ").append(context.getResources().getInteger(R.integer.startup_first_content_budget_ms))
+                .append(" ms\n");
+        sb.append("forecast      ~").append(forecastFootprint).append(" bytes for ").append(forecastSize)
+                .append(" entries\n");
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Debug screen showing the metrics dump. The text is selectable so it can be copied into a bug
+ * report, and is also written to the log.
+ */
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.widget.TextView;
+
+public class MetricsActivity extends AppCompatActivity {
+
+    private static final String TAG = "Metrics";
+
+    private TextView tvMetrics;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        tvMetrics = (TextView) findViewById(R.id.metrics_text);
+    }
+
+    /**
+     * Refreshes the dump each time the screen is shown.
+     */
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        String dump = Metrics.dump(this);
+        tvMetrics.setText(dump);
+        Log.i(TAG, "\n" + dump);
+    }
+
+}
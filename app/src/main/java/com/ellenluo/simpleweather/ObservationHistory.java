@@ -0,0 +1,377 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Append-only history of current conditions, one file of fixed-size records per location, stamped
+ * with the time the API reports for each observation. Records are kept in time order, so a range
+ * query memory-maps the file, binary searches both ends and copies out only the records in
+ * between. When a file grows past its limit, records older than the full resolution period are
+ * thinned to one per hour and the oldest are dropped if needed.
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+class ObservationHistory {
+
+    private static final String SUFFIX = ".bin";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x53574831;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    // time, temperature, pressure, wind speed, condition id, humidity
+    static final int RECORD_SIZE = 8 + 4 + 4 + 4 + 4 + 4;
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    private final File dir;
+    private final int maxRecords;
+    private final long minIntervalMillis;
+    private final long fullResolutionMillis;
+
+    /**
+     * Observations within a time range, held column by column.
+     */
+    static class Range {
+
+        private final long[] times;
+        private final float[] temperatures;
+        private final float[] pressures;
+        private final float[] windSpeeds;
+        private final int[] conditionIds;
+        private final int[] humidities;
+
+        private Range(int size) {
+            times = new long[size];
+            temperatures = new float[size];
+            pressures = new float[size];
+            windSpeeds = new float[size];
+            conditionIds = new int[size];
+            humidities = new int[size];
+        }
+
+        int size() {
+            return times.length;
+        }
+
+        long getTime(int i) {
+            return times[i];
+        }
+
+        double getTemperature(int i) {
+            return temperatures[i];
+        }
+
+        double getPressure(int i) {
+            return pressures[i];
+        }
+
+        double getWindSpeed(int i) {
+            return windSpeeds[i];
+        }
+
+        int getConditionId(int i) {
+            return conditionIds[i];
+        }
+
+        int getHumidity(int i) {
+            return humidities[i];
+        }
+
+        /**
+         * Returns the lowest temperature in the range, or NaN if it is empty.
+         */
+        double getTemperatureMin() {
+            double min = Double.NaN;
+            for (float temperature : temperatures) {
+                min = Double.isNaN(min) ? temperature : Math.min(min, temperature);
+            }
+            return min;
+        }
+
+        /**
+         * Returns the highest temperature in the range, or NaN if it is empty.
+         */
+        double getTemperatureMax() {
+            double max = Double.NaN;
+            for (float temperature : temperatures) {
+                max = Double.isNaN(max) ? temperature : Math.max(max, temperature);
+            }
+            return max;
+        }
+
+        /**
+         * Returns the mean temperature over the range, or NaN if it is empty.
+         */
+        double getTemperatureMean() {
+            double sum = 0;
+            for (float temperature : temperatures) {
+                sum += temperature;
+            }
+            return sum / temperatures.length;
+        }
+    }
+
+    /**
+     * Creates history in dir. Observations closer than minIntervalMillis to the previous one are
+     * dropped, and files are compacted once they exceed maxRecords.
+     */
+    ObservationHistory(File dir, int maxRecords, long minIntervalMillis, long fullResolutionMillis) {
+        this.dir = dir;
+        this.maxRecords = maxRecords;
+        this.minIntervalMillis = minIntervalMillis;
+        this.fullResolutionMillis = fullResolutionMillis;
+    }
+
+    /**
+     * Appends current for the location key at its observation time, returning false if it was not
+     * recorded because its time is unknown, or too close to or not after the last observation. A
+     * cached copy served again therefore adds nothing.
+     */
+    synchronized boolean append(String key, CurrentWeather current) {
+        long time = current.observedAt;
+        if (time <= 0) {
+            return false;
+        }
+
+        File file = getFile(key);
+        RandomAccessFile out = null;
+        int count;
+
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                return false;
+            }
+
+            out = new RandomAccessFile(file, "rw");
+            count = openForAppend(out);
+
+            if (count > 0) {
+                out.seek(offset(count - 1));
+                long last = out.readLong();
+                if (time <= last || time - last < minIntervalMillis) {
+                    return false;
+                }
+            }
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            record.putLong(time)
+                    .putFloat((float) current.temperature)
+                    .putFloat((float) current.pressure)
+                    .putFloat((float) current.windSpeed)
+                    .putInt(current.conditionId)
+                    .putInt(current.humidity);
+
+            out.seek(offset(count));
+            out.write(record.array());
+            count++;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+
+        if (count > maxRecords) {
+            compact(file);
+        }
+        return true;
+    }
+
+    /**
+     * Returns observations for the location key from from to to inclusive, in time order.
+     */
+    synchronized Range query(String key, long from, long to) {
+        File file = getFile(key);
+        if (!file.exists()) {
+            return new Range(0);
+        }
+
+        FileInputStream in = null;
+
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            int count = getCount(buffer, channel.size());
+            int start = search(buffer, count, from);
+            int end = to == Long.MAX_VALUE ? count : search(buffer, count, to + 1);
+
+            Range range = new Range(Math.max(0, end - start));
+            buffer.position(offset(start));
+            for (int i = 0; i < range.size(); i++) {
+                range.times[i] = buffer.getLong();
+                range.temperatures[i] = buffer.getFloat();
+                range.pressures[i] = buffer.getFloat();
+                range.windSpeeds[i] = buffer.getFloat();
+                range.conditionIds[i] = buffer.getInt();
+                range.humidities[i] = buffer.getInt();
+            }
+            return range;
+        } catch (IOException e) {
+            return new Range(0);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Returns observations for the location key over the last days days.
+     */
+    Range queryLastDays(String key, int days) {
+        return query(key, System.currentTimeMillis() - days * DAY_MILLIS, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the number of observations stored for the location key.
+     */
+    int getCount(String key) {
+        File file = getFile(key);
+        long length = file.length();
+        return length < HEADER_SIZE ? 0 : (int) ((length - HEADER_SIZE) / RECORD_SIZE);
+    }
+
+    /**
+     * Prepares a file for appending, writing the header if it is new or unreadable and cutting off
+     * any record left half written. Returns the number of whole records.
+     */
+    private static int openForAppend(RandomAccessFile out) throws IOException {
+        if (out.length() < HEADER_SIZE || out.readInt() != MAGIC || out.readInt() != VERSION) {
+            out.setLength(0);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            return 0;
+        }
+
+        int count = (int) ((out.length() - HEADER_SIZE) / RECORD_SIZE);
+        out.setLength(offset(count));
+        return count;
+    }
+
+    /**
+     * Rewrites file with old records thinned to one per hour, then trimmed from the oldest end so
+     * that appending can continue for a while before the next compaction.
+     */
+    private void compact(File file) {
+        FileInputStream in = null;
+        ByteBuffer kept;
+        int keptCount = 0;
+
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            int count = getCount(buffer, channel.size());
+            long cutoff = getTime(buffer, count - 1) - fullResolutionMillis;
+            kept = ByteBuffer.allocate(offset(count));
+            kept.putInt(MAGIC).putInt(VERSION);
+
+            long lastHour = -1;
+            byte[] record = new byte[RECORD_SIZE];
+            buffer.position(HEADER_SIZE);
+
+            for (int i = 0; i < count; i++) {
+                buffer.get(record);
+                long time = getTime(buffer, i);
+
+                if (time < cutoff) {
+                    if (time / HOUR_MILLIS == lastHour) {
+                        continue;
+                    }
+                    lastHour = time / HOUR_MILLIS;
+                }
+
+                kept.put(record);
+                keptCount++;
+            }
+        } catch (IOException e) {
+            return;
+        } finally {
+            closeQuietly(in);
+        }
+
+        // Leave a quarter of the space free so compaction does not run on every append
+        int limit = maxRecords * 3 / 4;
+        int drop = Math.max(0, keptCount - limit);
+
+        File temp = new File(dir, file.getName() + TEMP_SUFFIX);
+        FileOutputStream out = null;
+
+        try {
+            out = new FileOutputStream(temp);
+            out.write(kept.array(), 0, HEADER_SIZE);
+            out.write(kept.array(), offset(drop), (keptCount - drop) * RECORD_SIZE);
+            out.getFD().sync();
+            out.close();
+            out = null;
+
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            temp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Returns the number of whole records in a mapped file, or 0 if its header is not recognised.
+     */
+    private static int getCount(ByteBuffer buffer, long length) {
+        if (length < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return 0;
+        }
+        return (int) ((length - HEADER_SIZE) / RECORD_SIZE);
+    }
+
+    /**
+     * Returns the index of the first record at or after time.
+     */
+    private static int search(ByteBuffer buffer, int count, long time) {
+        int low = 0;
+        int high = count;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getTime(buffer, mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static long getTime(ByteBuffer buffer, int index) {
+        return buffer.getLong(offset(index));
+    }
+
+    private static int offset(int index) {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+
+    private File getFile(String key) {
+        return new File(dir, key.replaceAll("[^A-Za-z0-9.-]", "_") + SUFFIX);
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Provider backed by the Open Weather Map API, or any endpoint serving the same format.
+ */
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+class OpenWeatherMapProvider implements WeatherProvider {
+
+    static final String DEFAULT_BASE_URL = "http://api.openweathermap.org/data/2.5";
+
+    // Always fetched in metric; conversion to display units happens locally
+    private static final String CURRENT = "%s/weather?%s&units=metric";
+    private static final String FORECAST = "%s/forecast?%s&units=metric";
+
+    private final String name;
+    private final String baseUrl;
+    private final String apiKey;
+    private final HttpTransport transport;
+    private final ResponseCache cache;
+    private final RequestBudget budget;
+
+    /**
+     * Creates provider for the API at baseUrl. An empty apiKey sends no key, and a null budget
+     * leaves requests unlimited.
+     */
+    OpenWeatherMapProvider(String name, String baseUrl, String apiKey, HttpTransport transport, ResponseCache cache,
+                           RequestBudget budget) {
+        this.name = name;
+        this.baseUrl = baseUrl;
+        this.apiKey = apiKey;
+        this.transport = transport;
+        this.cache = cache;
+        this.budget = budget;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean isFresh(WeatherQuery query, boolean forecast) {
+        return cache.isFresh(String.format(forecast ? FORECAST : CURRENT, baseUrl, query.getLocationParameter()));
+    }
+
+    /**
+     * Retrieves current conditions for query, returning null on failure.
+     */
+    @Override
+    public CurrentWeather getCurrentWeather(WeatherQuery query, FetchHandle handle) {
+        try {
+            URL url = new URL(String.format(CURRENT, baseUrl, query.getLocationParameter()));
+            return RemoteFetch.getData(transport, cache, budget, apiKey, url, handle, WeatherParser.CURRENT);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Retrieves forecast for query, returning null on failure.
+     */
+    @Override
+    public Forecast getForecast(WeatherQuery query, FetchHandle handle) {
+        try {
+            URL url = new URL(String.format(FORECAST, baseUrl, query.getLocationParameter()));
+            return RemoteFetch.getData(transport, cache, budget, apiKey, url, handle, WeatherParser.FORECAST);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+}
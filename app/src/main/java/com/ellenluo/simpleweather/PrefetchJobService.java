@@ -0,0 +1,124 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Periodic background refresh of the saved location, so the cache and snapshot are already warm
+ * when the app is opened. Runs only on unmetered networks while charging.
+ */
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.PowerManager;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.List;
+
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class PrefetchJobService extends JobService {
+
+    private static final String TAG = "PrefetchJobService";
+
+    // Single fixed id, so repeated scheduling replaces rather than stacks jobs
+    private static final int JOB_ID = 1;
+    private static final long BACKOFF_MILLIS = 60 * 1000;
+
+    private FetchPipeline.Request request;
+
+    /**
+     * Schedules the periodic refresh unless it is already pending.
+     */
+    static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        List<JobInfo> pending = scheduler.getAllPendingJobs();
+        for (JobInfo job : pending) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+
+        long interval = context.getResources().getInteger(R.integer.prefetch_interval_minutes) * 60 * 1000L;
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, PrefetchJobService.class))
+                .setPeriodic(interval)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setBackoffCriteria(BACKOFF_MILLIS, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+                .setPersisted(true)
+                .build();
+
+        scheduler.schedule(job);
+    }
+
+    /**
+     * Fetches the saved location, finishing the job once the snapshot has been written.
+     */
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        PowerManager power = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        if (power.isPowerSaveMode()) {
+            // Skip this run, the next period will try again
+            return false;
+        }
+
+        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(this);
+        WeatherQuery query = WeatherQuery.fromPreferences(pref);
+        Units units = Units.get(pref.getBoolean("metric", false));
+
+        request = FetchPipeline.fetchInBackground(this, query, units, new FetchPipeline.Listener() {
+            private boolean finished;
+
+            @Override
+            public void onCurrentWeather(CurrentWeather current) {
+            }
+
+            @Override
+            public void onForecast(Forecast forecast, ForecastFormatter.Rows rows) {
+            }
+
+            @Override
+            public void onUpdated(long time) {
+                finish(params, false);
+            }
+
+            @Override
+            public void onError() {
+                // Retry with backoff
+                finish(params, true);
+            }
+
+            private void finish(JobParameters params, boolean reschedule) {
+                if (!finished) {
+                    finished = true;
+                    request = null;
+                    Log.d(TAG, "Prefetch " + (reschedule ? "failed" : "done"));
+                    jobFinished(params, reschedule);
+                }
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Called when constraints are no longer met, aborting the fetch.
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (request != null) {
+            request.cancel();
+            request = null;
+        }
+        return true;
+    }
+
+}
@@ -1,107 +1,347 @@
 package com.ellenluo.simpleweather;
 
 /**
- * Fetches JSON data from Open Weather Map.
+ * Fetches weather data from Open Weather Map compatible endpoints, through the response cache and
+ * request budget. Providers build the URLs; batched lookups by city id are made here directly.
  */
 
 import android.content.Context;
-import android.widget.Toast;
+import android.util.Log;
 
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 class RemoteFetch {
 
-    private static final String OPEN_WEATHER_CURRENT = "http://api.openweathermap.org/data/2.5/weather?%s&units=%s";
-    private static final String OPEN_WEATHER_FORECAST = "http://api.openweathermap.org/data/2.5/forecast?q=%s&units=%s";
-    private static final String IMPERIAL = "imperial";
-    private static final String METRIC = "metric";
+    private static final String TAG = "RemoteFetch";
+
+    // Always fetched in metric; conversion to display units happens locally
+    private static final String OPEN_WEATHER_GROUP = OpenWeatherMapProvider.DEFAULT_BASE_URL + "/group?id=%s&units=metric";
+
+    // Most city ids the group endpoint accepts in one request
+    static final int MAX_GROUP_SIZE = 20;
+
+    // Concurrent requests for the same URL share one network call
+    private static final SingleFlight<Object> inFlight = new SingleFlight<>();
 
     /**
-     * Retrieves weather data from zip code.
+     * Retrieves current conditions for up to MAX_GROUP_SIZE city ids in a single request, returning
+     * null on failure. Results are not guaranteed to be in the order of the ids.
      */
-    static JSONObject getJSON(Context context, int zipCode, boolean forecast, boolean metric) {
+    static List<CurrentWeather> getGroup(Context context, List<Integer> cityIds, FetchHandle handle) {
         try {
-            URL url;
-
-            if (forecast) {
-                url = new URL(String.format(OPEN_WEATHER_FORECAST, "zip=" + zipCode + ",us", getUnits(metric)));
-            } else {
-                url = new URL(String.format(OPEN_WEATHER_CURRENT, "zip=" + zipCode + ",us", getUnits(metric)));
+            StringBuilder ids = new StringBuilder(cityIds.size() * 8);
+            for (int i = 0; i < cityIds.size(); i++) {
+                if (i > 0) {
+                    ids.append(',');
+                }
+                ids.append(cityIds.get(i));
             }
 
-            return getData(context, url);
+            URL url = new URL(String.format(OPEN_WEATHER_GROUP, ids));
+            return getData(context, url, handle, WeatherParser.GROUP);
         } catch (Exception e) {
-            Toast.makeText(context, context.getString(R.string.error_location), Toast.LENGTH_LONG).show();
             return null;
         }
     }
 
     /**
-     * Retrieves weather data from latitude/longitude.
+     * Returns how many requests were served by joining an identical request already in flight.
+     */
+    static int getCoalescedCount() {
+        return inFlight.getSharedCount();
+    }
+
+    /**
+     * Gets data from Open Weather Map, joining an identical request if one is already in flight.
+     */
+    private static <T> T getData(Context context, URL url, FetchHandle handle, WeatherParser.Decoder<T> decoder) {
+        return getData(HttpTransport.get(context), ResponseCache.get(context), RequestBudget.get(context),
+                context.getString(R.string.open_weather_maps_app_id), url, handle, decoder);
+    }
+
+    /**
+     * Gets data through the given transport, cache and budget. Needs no Context, so load tests can
+     * drive the fetch path on the JVM against a local server. budget may be null for endpoints
+     * without a quota, and apiKey empty for endpoints without a key.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T getData(final HttpTransport transport, final ResponseCache cache, final RequestBudget budget,
+                         final String apiKey, final URL url, FetchHandle handle,
+                         final WeatherParser.Decoder<T> decoder) {
+        try {
+            Object result = inFlight.execute(url.toString(), handle, new SingleFlight.Call<Object>() {
+                @Override
+                public Object execute(FetchHandle shared) {
+                    return fetchData(transport, cache, budget, apiKey, url, shared, decoder);
+                }
+            });
+
+            // Let the caller tell an outdated copy from a network answer
+            if (result instanceof Stale) {
+                handle.markStale();
+                result = ((Stale) result).data;
+            }
+            return (T) result;
+        } catch (InterruptedException e) {
+            // Caller was cancelled while waiting
+            return null;
+        }
+    }
+
+    /**
+     * Gets data from Open Weather Map, serving fresh responses from cache and revalidating stale ones.
+     * Bodies are decoded as they stream in, while being copied into the cache. Requests that would
+     * exceed the budget serve a stale copy if there is one, or wait for a token. Stale copies are
+     * returned wrapped in Stale.
      */
-    static JSONObject getJSON(Context context, float lat, float lon, boolean forecast, boolean metric) {
+    private static <T> Object fetchData(HttpTransport transport, ResponseCache cache, RequestBudget budget, String apiKey,
+                                   URL url, FetchHandle handle, WeatherParser.Decoder<T> decoder) {
         try {
-            URL url;
+            String key = url.toString();
+
+            // Serve from cache if still fresh
+            InputStream cached = cache.getFresh(key);
+            if (cached != null) {
+                T data = decodeCached(cached, decoder);
+                if (data != null) {
+                    return data;
+                }
+
+                // Otherwise the broken entry would be served until it goes stale
+                cache.evict(key);
+            }
+
+            if (handle.isCancelled()) {
+                return null;
+            }
+
+            ResponseCache.Entry stale = cache.getStale(key);
+
+            // Fail fast while the endpoint's circuit is open, answering from an outdated copy if there is one
+            if (transport.isRejecting(url)) {
+                return decodeStale(cache, stale, decoder);
+            }
+
+            // Outdated data beats a request that would exceed the key's quota
+            if (budget != null && !budget.tryAcquire(handle.isBackground())) {
+                Object old = decodeStale(cache, stale, decoder);
+                if (old != null) {
+                    budget.recordStale();
+                    return old;
+                }
 
-            if (forecast) {
-                url = new URL(String.format(OPEN_WEATHER_FORECAST, "lat=" + lat + "&lon=" + lon, getUnits(metric)));
-            } else {
-                url = new URL(String.format(OPEN_WEATHER_CURRENT, "lat=" + lat + "&lon=" + lon, getUnits(metric)));
+                if (!budget.acquire(handle)) {
+                    Log.d(TAG, "Request budget exhausted: " + budget);
+                    return null;
+                }
             }
 
-            return getData(context, url);
+            Map<String, String> headers = new HashMap<>();
+            if (!apiKey.isEmpty()) {
+                headers.put("x-api-key", apiKey);
+            }
+
+            // Make request conditional if a stale copy is available
+            if (stale != null) {
+                if (stale.etag != null) {
+                    headers.put("If-None-Match", stale.etag);
+                }
+                if (stale.lastModified != null) {
+                    headers.put("If-Modified-Since", stale.lastModified);
+                }
+            }
+
+            HttpTransport.Response response;
+            try {
+                response = transport.execute(url, headers, handle);
+            } catch (IOException e) {
+                // Timed out, unreachable, or the circuit has just opened
+                return handle.isCancelled() ? null : decodeStale(cache, stale, decoder);
+            }
+
+            try {
+                if (stale != null && response.code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    response.close();
+                    cached = cache.revalidated(stale);
+                    if (cached != null) {
+                        T data = decodeCached(cached, decoder);
+                        if (data != null) {
+                            return data;
+                        }
+                        cache.evict(key);
+                    }
+
+                    // Cached copy vanished or could not be decoded, fetch unconditionally
+                    return fetchData(transport, cache, budget, apiKey, url, handle, decoder);
+                }
+
+                if (response.code >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                    // Keep showing the last good data while the server has trouble
+                    return decodeStale(cache, stale, decoder);
+                }
+
+                if (response.code != HttpURLConnection.HTTP_OK) {
+                    return null;
+                }
+
+                cache.recordMiss();
+                ResponseCache.Editor editor = cache.edit(key, response.getHeader("ETag"), response.getHeader("Last-Modified"));
+                T data = null;
+
+                try {
+                    data = decode(new TeeInputStream(response.getBody(), editor.getOutputStream()), decoder);
+                } finally {
+                    // Only successful responses are worth keeping
+                    if (data != null) {
+                        editor.commit();
+                    } else {
+                        editor.abort();
+                    }
+                }
+
+                Log.d(TAG, cache + ", " + budget + ", coalesced=" + inFlight.getSharedCount());
+                return data;
+            } finally {
+                response.close();
+            }
         } catch (Exception e) {
-            Toast.makeText(context, context.getString(R.string.error_location), Toast.LENGTH_LONG).show();
+            // Errors are reported by the caller on the main thread
             return null;
         }
     }
 
     /**
-     * Returns unit type.
+     * Decodes a body and consumes whatever follows the JSON document, so the whole body reaches
+     * the cache and the connection can be reused.
+     */
+    private static <T> T decode(InputStream in, WeatherParser.Decoder<T> decoder) throws IOException {
+        long start = Metrics.start();
+        long allocated = Metrics.startAllocations();
+        T data = decoder.decode(in);
+
+        byte[] buffer = new byte[512];
+        while (in.read(buffer) != -1) {
+            // Drain trailing bytes
+        }
+
+        // Parsing interleaves with reading, so separate out time spent waiting on the network
+        long total = System.nanoTime() - start;
+        if (in instanceof TeeInputStream) {
+            long read = ((TeeInputStream) in).readNanos;
+            Metrics.recordNanos(Metrics.BODY, read);
+            Metrics.recordNanos(Metrics.PARSE, total - read);
+        } else {
+            Metrics.recordNanos(Metrics.PARSE, total);
+        }
+
+        // Read buffers are counted with parsing, since the two interleave
+        Metrics.recordAllocations(Metrics.PARSE, allocated);
+
+        return data;
+    }
+
+    /**
+     * Decodes a cached entry regardless of age, returning it wrapped in Stale, or null if there is none.
+     */
+    private static <T> Stale decodeStale(ResponseCache cache, ResponseCache.Entry stale,
+                                         WeatherParser.Decoder<T> decoder) throws IOException {
+        InputStream in = stale == null ? null : cache.openStale(stale);
+        T data = in == null ? null : decodeAndClose(in, decoder);
+        return data == null ? null : new Stale(data);
+    }
+
+    /**
+     * Outdated cached data served because the network could not be used.
+     */
+    private static class Stale {
+
+        final Object data;
+
+        Stale(Object data) {
+            this.data = data;
+        }
+    }
+
+    /**
+     * Decodes a cached body and closes it, returning null if it cannot be decoded. Only bodies that
+     * decoded are cached, so a failure here means the entry is damaged.
      */
-    private static String getUnits(boolean metric) {
-        if (metric) {
-            return METRIC;
+    private static <T> T decodeCached(InputStream in, WeatherParser.Decoder<T> decoder) {
+        try {
+            return decodeAndClose(in, decoder);
+        } catch (Exception e) {
+            // JsonReader reports unexpected tokens with IllegalStateException as well as IOException
+            return null;
         }
-        return IMPERIAL;
     }
 
     /**
-     * Gets data from Open Weather Map.
+     * Decodes a cached body and closes it.
      */
-    private static JSONObject getData(Context context, URL url) {
+    private static <T> T decodeAndClose(InputStream in, WeatherParser.Decoder<T> decoder) throws IOException {
         try {
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.addRequestProperty("x-api-key", context.getString(R.string.open_weather_maps_app_id));
-            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+            return decode(in, decoder);
+        } finally {
+            in.close();
+        }
+    }
 
-            StringBuilder json = new StringBuilder(1024);
-            String temp = "";
+    /**
+     * Copies every byte read from the network into the cache.
+     */
+    private static class TeeInputStream extends FilterInputStream {
 
-            while ((temp = reader.readLine()) != null) {
-                json.append(temp).append("\n");
-            }
+        private final OutputStream out;
 
-            reader.close();
+        // Time spent blocked reading the response
+        long readNanos;
 
-            JSONObject data = new JSONObject(json.toString());
+        TeeInputStream(InputStream in, OutputStream out) {
+            super(in);
+            this.out = out;
+        }
 
-            // Display error message
-            if (data.getInt("cod") != 200) {
-                Toast.makeText(context, context.getString(R.string.error_location), Toast.LENGTH_LONG).show();
-                return null;
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            readNanos += System.nanoTime() - start;
+            if (b != -1) {
+                out.write(b);
             }
+            return b;
+        }
 
-            return data;
-        } catch (Exception e) {
-            // Display error message
-            Toast.makeText(context, context.getString(R.string.error_location), Toast.LENGTH_LONG).show();
-            return null;
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, count);
+            readNanos += System.nanoTime() - start;
+            if (read > 0) {
+                out.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Read instead of skipping so skipped bytes reach the cache
+            byte[] buffer = new byte[(int) Math.min(n, 512)];
+            int read = read(buffer, 0, buffer.length);
+            return read < 0 ? 0 : read;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
         }
     }
 
@@ -0,0 +1,227 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Limits requests made with the shared Open Weather Map key. A log of the last quota grant times
+ * guarantees that no 60 second window ever carries more than quota requests, while sustained
+ * throughput reaches the full quota. In front of it, a token bucket holding up to burst tokens and
+ * refilling at the quota rate spreads requests out. Background requests may not dip into the last
+ * part of the bucket, and give way to waiting foreground ones.
+ */
+
+import android.content.Context;
+
+import java.util.Locale;
+
+class RequestBudget {
+
+    private static final long NANOS_PER_MINUTE = 60 * 1000000000L;
+
+    private static RequestBudget instance;
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private final double backgroundReserve;
+    private final long maxWaitMillis;
+
+    private double tokens;
+    private long refilledAt;
+    private int foregroundWaiting;
+
+    // Times of the last quota grants; once full, grants[next] is the oldest
+    private final long[] grants;
+    private int next;
+    private int grantCount;
+
+    private int grantedCount;
+    private int waitedCount;
+    private int staleCount;
+    private int deniedCount;
+
+    /**
+     * Returns the application-wide budget, configured from resources.
+     */
+    static synchronized RequestBudget get(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            instance = new RequestBudget(app.getResources().getInteger(R.integer.api_quota_per_minute),
+                    app.getResources().getInteger(R.integer.api_burst),
+                    app.getResources().getInteger(R.integer.api_max_wait_ms));
+        }
+        return instance;
+    }
+
+    /**
+     * Creates a full bucket for a quota of quotaPerMinute requests, allowing bursts of up to burst.
+     */
+    RequestBudget(int quotaPerMinute, int burst, long maxWaitMillis) {
+        if (burst < 1 || quotaPerMinute < burst) {
+            throw new IllegalArgumentException("Need 1 <= burst <= quota, got burst " + burst + ", quota "
+                    + quotaPerMinute);
+        }
+
+        this.grants = new long[quotaPerMinute];
+        this.capacity = burst;
+        this.tokensPerNano = (double) quotaPerMinute / NANOS_PER_MINUTE;
+        this.backgroundReserve = burst / 2;
+        this.maxWaitMillis = maxWaitMillis;
+        this.tokens = burst;
+        this.refilledAt = now();
+    }
+
+    /**
+     * Takes a token if one is available right away.
+     */
+    synchronized boolean tryAcquire(boolean background) {
+        refill();
+        if (!isAvailable(background)) {
+            return false;
+        }
+
+        grant();
+        return true;
+    }
+
+    /**
+     * Waits up to the configured maximum for a token, at the priority of handle, returning false if
+     * none was granted in time or handle was cancelled.
+     */
+    boolean acquire(FetchHandle handle) throws InterruptedException {
+        if (tryAcquire(handle.isBackground())) {
+            return true;
+        }
+
+        Runnable wake = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (RequestBudget.this) {
+                    RequestBudget.this.notifyAll();
+                }
+            }
+        };
+        handle.addCancelListener(wake);
+
+        try {
+            return awaitToken(handle);
+        } finally {
+            handle.removeCancelListener(wake);
+        }
+    }
+
+    /**
+     * Counts a request answered from an outdated cache entry because no token was available.
+     */
+    synchronized void recordStale() {
+        staleCount++;
+    }
+
+    synchronized int getGrantedCount() {
+        return grantedCount;
+    }
+
+    synchronized int getWaitedCount() {
+        return waitedCount;
+    }
+
+    synchronized int getStaleCount() {
+        return staleCount;
+    }
+
+    synchronized int getDeniedCount() {
+        return deniedCount;
+    }
+
+    /**
+     * Returns the tokens currently in the bucket.
+     */
+    synchronized double getAvailable() {
+        refill();
+        return tokens;
+    }
+
+    @Override
+    public synchronized String toString() {
+        refill();
+        return String.format(Locale.US, "RequestBudget{granted=%d, waited=%d, stale=%d, denied=%d, tokens=%.1f}",
+                grantedCount, waitedCount, staleCount, deniedCount, tokens);
+    }
+
+    /**
+     * Returns the current time in nanoseconds. Overridden by tests to run on a simulated clock.
+     */
+    long now() {
+        return System.nanoTime();
+    }
+
+    private synchronized boolean awaitToken(FetchHandle handle) throws InterruptedException {
+        long deadline = now() + maxWaitMillis * 1000000;
+        boolean foreground = false;
+        waitedCount++;
+
+        try {
+            while (true) {
+                // Checked each time round, as a foreground caller may join a background fetch
+                if (!foreground && !handle.isBackground()) {
+                    foreground = true;
+                    foregroundWaiting++;
+                }
+
+                refill();
+                if (isAvailable(!foreground)) {
+                    grant();
+                    return true;
+                }
+
+                long remaining = deadline - now();
+                if (remaining <= 0 || handle.isCancelled()) {
+                    deniedCount++;
+                    return false;
+                }
+
+                // Sleep until the next token is due and the window has room, or until waiting foreground requests are done
+                double needed = (foreground ? 1 : backgroundReserve + 1) - tokens;
+                long windowDue = grantCount == grants.length ? grants[next] + NANOS_PER_MINUTE - now() : 0;
+                long due = Math.max(needed > 0 ? (long) Math.ceil(needed / tokensPerNano) : 0, windowDue);
+                if (needed <= 0 && windowDue <= 0) {
+                    due = remaining;
+                }
+                wait(Math.max(1, Math.min(remaining, due) / 1000000));
+            }
+        } finally {
+            if (foreground) {
+                foregroundWaiting--;
+                if (foregroundWaiting == 0) {
+                    // Background waiters may go ahead now
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private boolean isAvailable(boolean background) {
+        // The oldest of the last quota grants must have left the window
+        if (grantCount == grants.length && now() - grants[next] < NANOS_PER_MINUTE) {
+            return false;
+        }
+
+        if (background) {
+            return foregroundWaiting == 0 && tokens >= backgroundReserve + 1;
+        }
+        return tokens >= 1;
+    }
+
+    private void grant() {
+        tokens--;
+        grantedCount++;
+
+        grants[next] = now();
+        next = (next + 1) % grants.length;
+        grantCount = Math.min(grantCount + 1, grants.length);
+    }
+
+    private void refill() {
+        long now = now();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+    }
+
+}
@@ -0,0 +1,417 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Disk-backed LRU cache of Open Weather Map responses, keyed by request URL (endpoint, location
+ * and units). Fresh entries are served without touching the network; stale entries keep their
+ * validators so the next request can be made conditional.
+ */
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class ResponseCache {
+
+    private static final String DIRECTORY = "responses";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int VERSION = 2;
+
+    // Offset of the fetch time within an entry file, just after the version
+    private static final int FETCHED_AT_OFFSET = 4;
+
+    private static ResponseCache instance;
+
+    private final File dir;
+    private final long freshnessMillis;
+    private final long maxSize;
+
+    // Access-ordered so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    private int hitCount;
+    private int missCount;
+    private int revalidationCount;
+
+    /**
+     * Cached response metadata. The body stays on disk until it is needed.
+     */
+    static class Entry {
+
+        final String key;
+        final File file;
+        final String etag;
+        final String lastModified;
+        final long fetchedAt;
+        final long length;
+
+        Entry(String key, File file, long length, long fetchedAt, String etag, String lastModified) {
+            this.key = key;
+            this.file = file;
+            this.length = length;
+            this.fetchedAt = fetchedAt;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * In-progress write of a response body. Exactly one of commit or abort must be called.
+     */
+    class Editor {
+
+        private final String key;
+        private final String etag;
+        private final String lastModified;
+        private final File temp;
+        private final DataOutputStream out;
+
+        private Editor(String key, String etag, String lastModified) throws IOException {
+            this.key = key;
+            this.etag = etag;
+            this.lastModified = lastModified;
+
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Unable to create cache directory");
+            }
+
+            temp = File.createTempFile(fileName(key), TEMP_SUFFIX, dir);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeUTF(key);
+            out.writeUTF(etag == null ? "" : etag);
+            out.writeUTF(lastModified == null ? "" : lastModified);
+        }
+
+        /**
+         * Returns the stream the body should be written to.
+         */
+        OutputStream getOutputStream() {
+            return out;
+        }
+
+        /**
+         * Publishes the written entry, replacing any previous one.
+         */
+        void commit() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                abort();
+                return;
+            }
+
+            synchronized (ResponseCache.this) {
+                File file = new File(dir, fileName(key));
+                remove(key);
+
+                if (!temp.renameTo(file)) {
+                    temp.delete();
+                    return;
+                }
+
+                Entry entry = new Entry(key, file, file.length(), System.currentTimeMillis(), emptyToNull(etag),
+                        emptyToNull(lastModified));
+                entries.put(key, entry);
+                size += entry.length;
+                trimToSize();
+            }
+        }
+
+        /**
+         * Discards the written data.
+         */
+        void abort() {
+            closeQuietly(out);
+            temp.delete();
+        }
+    }
+
+    /**
+     * Returns the application-wide cache, configured from resources.
+     */
+    static synchronized ResponseCache get(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            long freshness = app.getResources().getInteger(R.integer.cache_freshness_minutes) * 60 * 1000L;
+            long maxSize = app.getResources().getInteger(R.integer.cache_max_size_kb) * 1024L;
+            instance = new ResponseCache(new File(app.getCacheDir(), DIRECTORY), freshness, maxSize);
+        }
+        return instance;
+    }
+
+    /**
+     * Creates cache in the given directory and loads the index of existing entries.
+     */
+    ResponseCache(File dir, long freshnessMillis, long maxSize) {
+        this.dir = dir;
+        this.freshnessMillis = freshnessMillis;
+        this.maxSize = maxSize;
+        loadIndex();
+    }
+
+    /**
+     * Opens the cached body if it is within the freshness window, or returns null.
+     */
+    synchronized InputStream getFresh(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null || System.currentTimeMillis() - entry.fetchedAt >= freshnessMillis) {
+            return null;
+        }
+
+        InputStream body = openBody(entry);
+        if (body != null) {
+            hitCount++;
+            entry.file.setLastModified(System.currentTimeMillis());
+        }
+        return body;
+    }
+
+    /**
+     * Returns whether key has an entry within the freshness window, without opening it.
+     */
+    synchronized boolean isFresh(String key) {
+        Entry entry = entries.get(key);
+        return entry != null && System.currentTimeMillis() - entry.fetchedAt < freshnessMillis;
+    }
+
+    /**
+     * Returns the cached entry regardless of age, so its validators can be sent with a request.
+     */
+    synchronized Entry getStale(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Opens the body of an entry regardless of age, for when it cannot be revalidated.
+     */
+    synchronized InputStream openStale(Entry entry) {
+        return openBody(entry);
+    }
+
+    /**
+     * Marks a stale entry as fresh again after a 304 response and opens its body.
+     */
+    synchronized InputStream revalidated(Entry entry) {
+        long now = System.currentTimeMillis();
+        RandomAccessFile file = null;
+
+        try {
+            file = new RandomAccessFile(entry.file, "rw");
+            file.seek(FETCHED_AT_OFFSET);
+            file.writeLong(now);
+        } catch (IOException e) {
+            remove(entry.key);
+            entry.file.delete();
+            return null;
+        } finally {
+            closeQuietly(file);
+        }
+
+        InputStream body = openBody(entry);
+        if (body != null) {
+            revalidationCount++;
+            entries.put(entry.key, new Entry(entry.key, entry.file, entry.length, now, entry.etag, entry.lastModified));
+        }
+        return body;
+    }
+
+    /**
+     * Drops the entry for key, for example when its body turns out to be undecodable.
+     */
+    synchronized void evict(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            remove(key);
+            entry.file.delete();
+        }
+    }
+
+    /**
+     * Starts writing a full response for key.
+     */
+    Editor edit(String key, String etag, String lastModified) throws IOException {
+        return new Editor(key, etag, lastModified);
+    }
+
+    /**
+     * Counts a request that had to download the full response.
+     */
+    synchronized void recordMiss() {
+        missCount++;
+    }
+
+    synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    synchronized int getMissCount() {
+        return missCount;
+    }
+
+    synchronized int getRevalidationCount() {
+        return revalidationCount;
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ResponseCache{hits=" + hitCount + ", misses=" + missCount + ", revalidations="
+                + revalidationCount + ", entries=" + entries.size() + ", size=" + size + "}";
+    }
+
+    /**
+     * Opens an entry positioned at its body, dropping the entry if the file is unreadable.
+     */
+    private InputStream openBody(Entry entry) {
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry.file)));
+            readHeader(in);
+            return in;
+        } catch (IOException e) {
+            closeQuietly(in);
+            remove(entry.key);
+            entry.file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Evicts least recently used entries until the cache fits within its size cap.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+
+        while (size > maxSize && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            size -= eldest.length;
+            eldest.file.delete();
+            it.remove();
+        }
+    }
+
+    /**
+     * Removes entry from the index.
+     */
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.length;
+        }
+    }
+
+    /**
+     * Rebuilds the index from disk, using file modification times as LRU order.
+     */
+    private void loadIndex() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        List<File> sorted = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                // Left behind by an interrupted write
+                file.delete();
+            } else {
+                sorted.add(file);
+            }
+        }
+
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+
+        for (File file : sorted) {
+            DataInputStream in = null;
+
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                Entry entry = readHeader(in);
+                entries.put(entry.key, new Entry(entry.key, file, file.length(), entry.fetchedAt, entry.etag, entry.lastModified));
+                size += file.length();
+            } catch (IOException e) {
+                file.delete();
+            } finally {
+                closeQuietly(in);
+            }
+        }
+
+        trimToSize();
+    }
+
+    /**
+     * Reads entry header, leaving the stream positioned at the body.
+     */
+    private static Entry readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != VERSION) {
+            throw new IOException("Unknown cache entry version");
+        }
+
+        long fetchedAt = in.readLong();
+        String key = in.readUTF();
+        String etag = emptyToNull(in.readUTF());
+        String lastModified = emptyToNull(in.readUTF());
+        return new Entry(key, null, 0, fetchedAt, etag, lastModified);
+    }
+
+    /**
+     * Hashes key into a file name safe for any filesystem.
+     */
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+
+    static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+}
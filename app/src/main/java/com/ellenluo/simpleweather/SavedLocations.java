@@ -0,0 +1,139 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * User's list of saved locations, persisted in preferences. Each location remembers its Open
+ * Weather Map city id once known, so the whole list can be refreshed with group requests.
+ */
+
+import android.content.SharedPreferences;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+class SavedLocations {
+
+    private static final String KEY = "saved_locations";
+
+    /**
+     * Saved location with its display name and, if known, city id (0 otherwise).
+     */
+    static class Location {
+
+        final WeatherQuery query;
+        final int cityId;
+        final String name;
+
+        Location(WeatherQuery query, int cityId, String name) {
+            this.query = query;
+            this.cityId = cityId;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Reads saved locations in the order they were added.
+     */
+    static List<Location> load(SharedPreferences pref) {
+        String json = pref.getString(KEY, null);
+        if (json == null) {
+            return Collections.emptyList();
+        }
+
+        try {
+            JSONArray array = new JSONArray(json);
+            List<Location> locations = new ArrayList<>(array.length());
+
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject o = array.getJSONObject(i);
+                WeatherQuery query = new WeatherQuery(o.getInt("zip"), (float) o.getDouble("lat"),
+                        (float) o.getDouble("lon"), o.getBoolean("using_lat"));
+                locations.add(new Location(query, o.optInt("city_id"), o.optString("name")));
+            }
+
+            return locations;
+        } catch (JSONException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Adds a location, replacing any saved entry for the same query.
+     */
+    static synchronized void add(SharedPreferences pref, Location location) {
+        List<Location> locations = new ArrayList<>(load(pref));
+        remove(locations, location.query.getKey());
+        locations.add(location);
+        save(pref, locations);
+    }
+
+    /**
+     * Removes the location saved for query, if any.
+     */
+    static synchronized void remove(SharedPreferences pref, WeatherQuery query) {
+        List<Location> locations = new ArrayList<>(load(pref));
+        if (remove(locations, query.getKey())) {
+            save(pref, locations);
+        }
+    }
+
+    /**
+     * Records city ids and names learned from individual fetches, keyed by query key.
+     */
+    static synchronized void update(SharedPreferences pref, Map<String, CurrentWeather> results) {
+        List<Location> locations = new ArrayList<>(load(pref));
+        boolean changed = false;
+
+        for (int i = 0; i < locations.size(); i++) {
+            Location location = locations.get(i);
+            CurrentWeather weather = results.get(location.query.getKey());
+
+            if (weather != null && weather.cityId != location.cityId) {
+                locations.set(i, new Location(location.query, weather.cityId, weather.city));
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            save(pref, locations);
+        }
+    }
+
+    private static boolean remove(List<Location> locations, String key) {
+        for (int i = 0; i < locations.size(); i++) {
+            if (locations.get(i).query.getKey().equals(key)) {
+                locations.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void save(SharedPreferences pref, List<Location> locations) {
+        JSONArray array = new JSONArray();
+
+        try {
+            for (Location location : locations) {
+                JSONObject o = new JSONObject();
+                o.put("zip", location.query.zipCode);
+                o.put("lat", location.query.lat);
+                o.put("lon", location.query.lon);
+                o.put("using_lat", location.query.usingLat);
+                o.put("city_id", location.cityId);
+                o.put("name", location.name);
+                array.put(o);
+            }
+        } catch (JSONException e) {
+            // Only thrown for non-finite numbers, which coordinates never are
+            return;
+        }
+
+        pref.edit().putString(KEY, array.toString()).apply();
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Coalesces concurrent calls with the same key into one execution whose result every caller
+ * receives. The shared call is only aborted once every caller has cancelled, after a short grace
+ * period so a refresh that cancels and reissues the same request can still join it.
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class SingleFlight<V> {
+
+    private static final long CANCEL_GRACE_MILLIS = 500;
+
+    private static final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "single-flight-reaper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final Map<String, Flight<V>> flights = new HashMap<>();
+
+    private int executedCount;
+    private int sharedCount;
+
+    /**
+     * Work to run once per key.
+     */
+    interface Call<V> {
+
+        V execute(FetchHandle handle);
+    }
+
+    /**
+     * Shared execution and the callers waiting on it.
+     */
+    private static class Flight<V> {
+
+        final String key;
+        final FetchHandle handle;
+        final CountDownLatch done = new CountDownLatch(1);
+        int callers;
+        V result;
+
+        Flight(String key, boolean background) {
+            this.key = key;
+            this.handle = new FetchHandle(background);
+        }
+    }
+
+    /**
+     * Runs call for key, or waits for the identical call already in flight. The caller's handle
+     * only detaches it from the flight; the network work is owned by the flight.
+     */
+    V execute(final String key, FetchHandle caller, Call<V> call) throws InterruptedException {
+        final Flight<V> flight;
+        final boolean leader;
+
+        synchronized (this) {
+            Flight<V> existing = flights.get(key);
+
+            if (existing == null) {
+                flight = new Flight<>(key, caller.isBackground());
+                flights.put(key, flight);
+                leader = true;
+                executedCount++;
+            } else {
+                flight = existing;
+                leader = false;
+                sharedCount++;
+
+                // The shared call runs at the priority of its most urgent caller
+                if (!caller.isBackground()) {
+                    flight.handle.promote();
+                }
+            }
+
+            flight.callers++;
+        }
+
+        final AtomicBoolean left = new AtomicBoolean();
+        Runnable leave = new Runnable() {
+            @Override
+            public void run() {
+                if (left.compareAndSet(false, true)) {
+                    release(flight);
+                }
+            }
+        };
+        caller.addCancelListener(leave);
+
+        try {
+            if (leader) {
+                try {
+                    flight.result = call.execute(flight.handle);
+                } finally {
+                    synchronized (this) {
+                        if (flights.get(key) == flight) {
+                            flights.remove(key);
+                        }
+                    }
+                    flight.done.countDown();
+                }
+            } else {
+                flight.done.await();
+            }
+
+            return flight.result;
+        } finally {
+            caller.removeCancelListener(leave);
+            leave.run();
+        }
+    }
+
+    synchronized int getExecutedCount() {
+        return executedCount;
+    }
+
+    /**
+     * Returns how many calls were served by joining an in-flight call.
+     */
+    synchronized int getSharedCount() {
+        return sharedCount;
+    }
+
+    /**
+     * Drops a caller, scheduling the flight to be aborted if nobody is left waiting on it.
+     */
+    private void release(final Flight<V> flight) {
+        synchronized (this) {
+            flight.callers--;
+            if (flight.callers > 0 || flight.done.getCount() == 0) {
+                return;
+            }
+        }
+
+        reaper.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SingleFlight.this) {
+                    if (flight.callers > 0) {
+                        return;
+                    }
+
+                    // New callers must not join an aborted flight
+                    if (flights.get(flight.key) == flight) {
+                        flights.remove(flight.key);
+                    }
+                }
+                flight.handle.cancel();
+            }
+        }, CANCEL_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+}
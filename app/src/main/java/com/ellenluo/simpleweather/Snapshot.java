@@ -0,0 +1,140 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Last successful weather result, with a compact binary encoding that decodes without parsing
+ * text.
+ */
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+class Snapshot {
+
+    private static final int MAGIC = 0x53575331;
+    private static final int VERSION = 6;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Forecast entry with an empty description
+    private static final int MIN_ENTRY_SIZE = 8 + 4 + 2 + 4 + 4 + 4 + 4 + 4 + 4 + 4;
+
+    final String queryKey;
+
+    // When the data was observed, shown as its last update
+    final long updatedAt;
+    final CurrentWeather current;
+    final Forecast forecast;
+
+    Snapshot(String queryKey, long updatedAt, CurrentWeather current, Forecast forecast) {
+        this.queryKey = queryKey;
+        this.updatedAt = updatedAt;
+        this.current = current;
+        this.forecast = forecast;
+    }
+
+    /**
+     * Encodes snapshot into a byte array.
+     */
+    byte[] encode() {
+        byte[] key = toBytes(queryKey);
+        byte[] city = toBytes(current.city);
+        byte[] country = toBytes(current.country);
+        byte[] description = toBytes(current.description);
+
+        List<byte[]> descriptions = new ArrayList<>(forecast.size());
+        int size = 4 + 4 + 8 + 2 + key.length;
+        size += 4 + 2 + city.length + 2 + country.length + 2 + description.length + 4 + 8 + 4 + 8 + 8 + 8 + 8 + 8;
+        size += 4;
+
+        for (int i = 0; i < forecast.size(); i++) {
+            byte[] bytes = toBytes(forecast.getDescription(i));
+            descriptions.add(bytes);
+            size += MIN_ENTRY_SIZE + bytes.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(updatedAt);
+        putString(buffer, key);
+
+        buffer.putInt(current.cityId);
+        putString(buffer, city);
+        putString(buffer, country);
+        buffer.putInt(current.conditionId);
+        putString(buffer, description);
+        buffer.putDouble(current.temperature)
+                .putInt(current.humidity)
+                .putDouble(current.pressure)
+                .putDouble(current.windSpeed)
+                .putLong(current.sunrise)
+                .putLong(current.sunset)
+                .putLong(current.observedAt);
+
+        buffer.putInt(forecast.size());
+        for (int i = 0; i < forecast.size(); i++) {
+            // Forecast values are held as floats, so store them that way
+            buffer.putLong(forecast.getTime(i)).putInt(forecast.getConditionId(i));
+            putString(buffer, descriptions.get(i));
+            buffer.putFloat((float) forecast.getTemperature(i))
+                    .putFloat((float) forecast.getTemperatureMin(i))
+                    .putFloat((float) forecast.getTemperatureMax(i))
+                    .putInt(forecast.getHumidity(i))
+                    .putFloat((float) forecast.getPressure(i))
+                    .putFloat((float) forecast.getWindSpeed(i))
+                    .putFloat((float) forecast.getPrecipitation(i));
+        }
+
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a snapshot, returning null if the data is not a valid snapshot.
+     */
+    static Snapshot decode(ByteBuffer buffer) {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+
+            long updatedAt = buffer.getLong();
+            String key = getString(buffer);
+
+            // Arguments are evaluated left to right, matching the encoded field order
+            CurrentWeather current = new CurrentWeather(buffer.getInt(), getString(buffer), getString(buffer),
+                    buffer.getInt(), getString(buffer), buffer.getDouble(), buffer.getInt(), buffer.getDouble(),
+                    buffer.getDouble(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+
+            // Count comes from disk, so check it fits what is left before allocating for it
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / MIN_ENTRY_SIZE) {
+                return null;
+            }
+
+            Forecast.Builder forecast = new Forecast.Builder(count);
+            for (int i = 0; i < count; i++) {
+                forecast.add(buffer.getLong(), buffer.getInt(), getString(buffer), buffer.getFloat(), buffer.getFloat(),
+                        buffer.getFloat(), buffer.getInt(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+            }
+
+            return new Snapshot(key, updatedAt, current, forecast.build());
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    private static byte[] toBytes(String s) {
+        return s == null ? new byte[0] : s.getBytes(UTF_8);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Persists the last successful weather result so it can be shown immediately at startup.
+ */
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+class SnapshotStore {
+
+    private static final String TAG = "SnapshotStore";
+    private static final String FILE = "snapshot.bin";
+
+    /**
+     * Writes snapshot, replacing the previous one atomically.
+     */
+    static void save(Context context, Snapshot snapshot) {
+        AtomicFile file = new AtomicFile(new File(context.getFilesDir(), FILE));
+        FileOutputStream out = null;
+
+        try {
+            out = file.startWrite();
+            out.write(snapshot.encode());
+            file.finishWrite(out);
+        } catch (IOException e) {
+            file.failWrite(out);
+        }
+    }
+
+    /**
+     * Reads the last snapshot by memory-mapping it, or returns null if there is none.
+     */
+    static Snapshot load(Context context) {
+        File file = new File(context.getFilesDir(), FILE);
+        if (!file.exists()) {
+            return null;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        FileInputStream in = null;
+
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Snapshot snapshot = Snapshot.decode(buffer);
+
+            Log.d(TAG, "Decoded snapshot in " + (SystemClock.elapsedRealtime() - start) + " ms");
+            return snapshot;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            ResponseCache.closeQuietly(in);
+        }
+    }
+
+}
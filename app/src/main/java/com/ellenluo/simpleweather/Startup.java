@@ -0,0 +1,219 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Cold start path. Keeps the main thread free until the first frame: preferences and the icon font
+ * load on a background thread, and non-essential work, including reading preferences on the main
+ * thread, is deferred until after the first frame. Startup stages are traced and timed against
+ * budgets from resources; debug builds flag overruns with a toast and run under StrictMode so main
+ * thread I/O during startup shows up in the log.
+ */
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.StrictMode;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.Toast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class Startup {
+
+    private static final String TAG = "Startup";
+
+    // Deferred work still runs if no activity draws, for example when started for a background job
+    private static final long DEFERRED_TIMEOUT_MS = 5000;
+
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Main thread only. Reset for each activity watched, so every launch waits for its own frame.
+    private static final List<Runnable> deferred = new ArrayList<>();
+    private static boolean flushed;
+    private static int generation;
+
+    private static Context app;
+
+    /**
+     * Starts the startup clock and background loading. Called from Application.onCreate.
+     */
+    static void onApplicationCreate(final Application application) {
+        TraceCompat.beginSection("Startup.application");
+
+        try {
+            Metrics.markStart(getProcessStartNanos());
+            app = application;
+
+            if (BuildConfig.DEBUG) {
+                enableStrictMode();
+                Metrics.enableAllocationCounting();
+            }
+
+            new Thread("startup-preload") {
+                public void run() {
+                    preload(application);
+                }
+            }.start();
+
+            flushAfterTimeout(generation);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Runs task on the main thread once the current activity's first frame has been drawn. Must be
+     * called on the main thread.
+     */
+    static void runAfterFirstFrame(Runnable task) {
+        if (flushed) {
+            handler.post(task);
+        } else {
+            deferred.add(task);
+        }
+    }
+
+    /**
+     * Records the first frame drawn by activity, then runs deferred work. Work deferred from now on
+     * waits for this activity's frame, even if an earlier one has already drawn.
+     */
+    static void watchFirstFrame(Activity activity) {
+        flushed = false;
+        flushAfterTimeout(++generation);
+
+        final View decor = activity.getWindow().getDecorView();
+
+        decor.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decor.getViewTreeObserver().removeOnPreDrawListener(this);
+
+                // Posted from pre-draw, so this runs once the frame has been drawn
+                handler.post(new Runnable() {
+                    public void run() {
+                        checkBudget(Metrics.FIRST_FRAME, Metrics.markFirstFrame(),
+                                R.integer.startup_first_frame_budget_ms);
+                        flushDeferred();
+                    }
+                });
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Records the first time weather is shown on screen.
+     */
+    static void onFirstContent() {
+        checkBudget(Metrics.FIRST_CONTENT, Metrics.markFirstContent(), R.integer.startup_first_content_budget_ms);
+    }
+
+    /**
+     * Loads what the first screen needs off the main thread, so later reads on it find them ready.
+     */
+    private static void preload(Context context) {
+        TraceCompat.beginSection("Startup.preferences");
+        try {
+            // Blocks until the preferences file has been read and parsed
+            PreferenceManager.getDefaultSharedPreferences(context).getAll();
+        } finally {
+            TraceCompat.endSection();
+        }
+
+        TraceCompat.beginSection("Startup.icons");
+        try {
+            WeatherIcons.get(context);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Flushes deferred work after a timeout, unless another activity has started being watched.
+     */
+    private static void flushAfterTimeout(final int watched) {
+        handler.postDelayed(new Runnable() {
+            public void run() {
+                if (watched == generation) {
+                    flushDeferred();
+                }
+            }
+        }, DEFERRED_TIMEOUT_MS);
+    }
+
+    /**
+     * Posts deferred tasks one message each, so input can be handled between them.
+     */
+    private static void flushDeferred() {
+        if (flushed) {
+            return;
+        }
+
+        flushed = true;
+        for (Runnable task : deferred) {
+            handler.post(task);
+        }
+        deferred.clear();
+    }
+
+    /**
+     * Warns when a startup stage exceeds its budget, with a toast as well in debug builds so an
+     * overrun is noticed rather than lost in the log. elapsed is -1 if the stage was already recorded.
+     */
+    private static void checkBudget(String stage, long elapsed, int budgetRes) {
+        if (elapsed < 0 || app == null) {
+            return;
+        }
+
+        int budget = app.getResources().getInteger(budgetRes);
+        if (elapsed > budget) {
+            String message = stage + " took " + elapsed + " ms, over its " + budget + " ms budget";
+            if (BuildConfig.DEBUG) {
+                Log.e(TAG, message);
+                Toast.makeText(app, message, Toast.LENGTH_LONG).show();
+            } else {
+                Log.w(TAG, message);
+            }
+        } else {
+            Log.i(TAG, stage + " took " + elapsed + " ms");
+        }
+    }
+
+    /**
+     * Returns when the process was started on the System.nanoTime clock, or now if that is unknown.
+     */
+    private static long getProcessStartNanos() {
+        long now = System.nanoTime();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return now - (SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime()) * 1000000;
+        }
+        return now;
+    }
+
+    /**
+     * Logs disk and network access on the main thread, and leaked resources, in debug builds.
+     */
+    private static void enableStrictMode() {
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .detectNetwork()
+                .penaltyLog()
+                .build());
+        StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                .detectLeakedClosableObjects()
+                .detectLeakedSqlLiteObjects()
+                .penaltyLog()
+                .build());
+    }
+
+}
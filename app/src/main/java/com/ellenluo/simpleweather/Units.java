@@ -0,0 +1,108 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Converts canonical metric data (Celsius, m/s, hPa, mm) into the units chosen for display.
+ */
+
+class Units {
+
+    static final Units METRIC = new Units(true, "m/s", "hPa", "mm");
+    static final Units IMPERIAL = new Units(false, "mph", "inHg", "in");
+
+    private static final double MPH_PER_METRE_PER_SECOND = 2.2369363;
+    private static final double INHG_PER_HPA = 0.0295299831;
+    private static final double INCHES_PER_MILLIMETRE = 0.0393700787;
+
+    final boolean metric;
+    final String windUnit;
+    final String pressureUnit;
+    final String precipitationUnit;
+
+    private Units(boolean metric, String windUnit, String pressureUnit, String precipitationUnit) {
+        this.metric = metric;
+        this.windUnit = windUnit;
+        this.pressureUnit = pressureUnit;
+        this.precipitationUnit = precipitationUnit;
+    }
+
+    static Units get(boolean metric) {
+        return metric ? METRIC : IMPERIAL;
+    }
+
+    /**
+     * Converts a temperature from Celsius.
+     */
+    double temperature(double celsius) {
+        return metric ? celsius : celsius * 9 / 5 + 32;
+    }
+
+    /**
+     * Converts a wind speed from metres per second.
+     */
+    double windSpeed(double metresPerSecond) {
+        return metric ? metresPerSecond : metresPerSecond * MPH_PER_METRE_PER_SECOND;
+    }
+
+    /**
+     * Converts a pressure from hectopascals.
+     */
+    double pressure(double hectopascals) {
+        return metric ? hectopascals : hectopascals * INHG_PER_HPA;
+    }
+
+    /**
+     * Converts a precipitation volume from millimetres.
+     */
+    double precipitation(double millimetres) {
+        return metric ? millimetres : millimetres * INCHES_PER_MILLIMETRE;
+    }
+
+    /**
+     * Appends rounded temperature in display units, without the degree sign.
+     */
+    StringBuilder appendTemperature(StringBuilder sb, double celsius) {
+        return sb.append(Math.round(temperature(celsius)));
+    }
+
+    /**
+     * Appends wind speed with one decimal place and its unit.
+     */
+    StringBuilder appendWindSpeed(StringBuilder sb, double metresPerSecond) {
+        return appendFixed(sb, windSpeed(metresPerSecond), 1).append(' ').append(windUnit);
+    }
+
+    /**
+     * Appends pressure with its unit; whole hPa, or inHg to two decimal places.
+     */
+    StringBuilder appendPressure(StringBuilder sb, double hectopascals) {
+        if (metric) {
+            sb.append(Math.round(hectopascals));
+        } else {
+            appendFixed(sb, pressure(hectopascals), 2);
+        }
+        return sb.append(' ').append(pressureUnit);
+    }
+
+    /**
+     * Appends precipitation with its unit; mm to one decimal place, or inches to two.
+     */
+    StringBuilder appendPrecipitation(StringBuilder sb, double millimetres) {
+        return appendFixed(sb, precipitation(millimetres), metric ? 1 : 2).append(' ').append(precipitationUnit);
+    }
+
+    /**
+     * Appends a non-negative value with a fixed number of decimals, avoiding String.format.
+     */
+    private static StringBuilder appendFixed(StringBuilder sb, double value, int decimals) {
+        long scale = decimals == 1 ? 10 : 100;
+        long scaled = Math.round(value * scale);
+        sb.append(scaled / scale).append('.');
+
+        long fraction = scaled % scale;
+        if (decimals == 2 && fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction);
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Application used to start loading shared resources before the first activity is drawn.
+ */
+
+import android.app.Application;
+import android.content.Context;
+
+public class WeatherApplication extends Application {
+
+    /**
+     * Starts background loading, and makes sure background prefetch is scheduled once the first
+     * frame is up.
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Startup.onApplicationCreate(this);
+
+        final Context context = this;
+        Startup.runAfterFirstFrame(new Runnable() {
+            public void run() {
+                PrefetchJobService.schedule(context);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,207 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Headless fragment retained across configuration changes that owns fetches and their results.
+ * Views come and go as observers; results arriving while none is attached are kept and replayed
+ * to the next one, so recreation reuses data instead of fetching again.
+ */
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+
+public class WeatherDataFragment extends Fragment implements FetchPipeline.Listener {
+
+    static final String TAG = "weather_data";
+
+    private FetchPipeline.Request request;
+    private FetchPipeline.Request reformatRequest;
+
+    // Latest results, in canonical units
+    private CurrentWeather current;
+    private Forecast forecast;
+    private ForecastFormatter.Rows rows;
+    private long updatedAt;
+
+    private boolean failed;
+    private boolean errorPending;
+
+    // Units the observer displays; rows formatted in other units are reformatted before delivery
+    private Units units;
+    private Context app;
+
+    private FetchPipeline.Listener observer;
+
+    /**
+     * Returns the holder for this activity, adding it if it does not exist yet.
+     */
+    static WeatherDataFragment get(FragmentManager fm) {
+        WeatherDataFragment data = (WeatherDataFragment) fm.findFragmentByTag(TAG);
+        if (data == null) {
+            data = new WeatherDataFragment();
+            fm.beginTransaction().add(data, TAG).commit();
+        }
+        return data;
+    }
+
+    /**
+     * Keeps this instance, and any fetch it owns, alive through configuration changes.
+     */
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setRetainInstance(true);
+    }
+
+    /**
+     * Cancels fetches once the activity is finishing for good.
+     */
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        observer = null;
+
+        if (request != null) {
+            request.cancel();
+        }
+        if (reformatRequest != null) {
+            reformatRequest.cancel();
+        }
+    }
+
+    /**
+     * Attaches observer, replaying results it has not seen, or detaches the current one if null.
+     */
+    void setObserver(FetchPipeline.Listener observer) {
+        this.observer = observer;
+        if (observer == null) {
+            return;
+        }
+
+        if (current != null) {
+            observer.onCurrentWeather(current);
+        }
+        if (rows != null) {
+            observer.onForecast(forecast, rows);
+        }
+        if (updatedAt != 0) {
+            observer.onUpdated(updatedAt);
+        }
+        if (errorPending) {
+            errorPending = false;
+            observer.onError();
+        }
+    }
+
+    /**
+     * Returns whether nothing has been fetched yet, or the last fetch failed with nothing to show.
+     */
+    boolean needsFetch() {
+        return request == null || (failed && current == null && forecast == null);
+    }
+
+    /**
+     * Returns the units results are formatted in, or null if nothing has been requested yet.
+     */
+    Units getUnits() {
+        return units;
+    }
+
+    /**
+     * Starts fetching weather for query, replacing any fetch in flight.
+     */
+    void fetch(Context context, WeatherQuery query, Units units, boolean showSnapshot) {
+        if (request != null) {
+            request.cancel();
+        }
+
+        failed = false;
+        this.units = units;
+        app = context.getApplicationContext();
+        request = FetchPipeline.fetch(context, query, units, showSnapshot, this);
+    }
+
+    /**
+     * Shows the last saved result for query without fetching, for starting up offline.
+     */
+    void showSnapshot(Context context, WeatherQuery query, Units units) {
+        if (request != null) {
+            request.cancel();
+        }
+
+        failed = false;
+        this.units = units;
+        app = context.getApplicationContext();
+        request = FetchPipeline.loadSnapshot(context, query, units, this);
+    }
+
+    /**
+     * Reformats the forecast in memory with new display units. A forecast still loading is
+     * reformatted when it arrives.
+     */
+    void reformat(Context context, Units units) {
+        this.units = units;
+        app = context.getApplicationContext();
+        if (forecast == null) {
+            return;
+        }
+
+        if (reformatRequest != null) {
+            reformatRequest.cancel();
+        }
+        reformatRequest = FetchPipeline.reformat(context, forecast, units, this);
+    }
+
+    /**
+     * Returns the latest current conditions, or null if none have loaded yet.
+     */
+    CurrentWeather getCurrentWeather() {
+        return current;
+    }
+
+    @Override
+    public void onCurrentWeather(CurrentWeather current) {
+        this.current = current;
+        if (observer != null) {
+            observer.onCurrentWeather(current);
+        }
+    }
+
+    @Override
+    public void onForecast(Forecast forecast, ForecastFormatter.Rows rows) {
+        this.forecast = forecast;
+
+        // Units changed while these rows were being fetched or formatted
+        if (units != null && rows.units != units) {
+            reformat(app, units);
+            return;
+        }
+
+        this.rows = rows;
+        if (observer != null) {
+            observer.onForecast(forecast, rows);
+        }
+    }
+
+    @Override
+    public void onUpdated(long time) {
+        updatedAt = time;
+        if (observer != null) {
+            observer.onUpdated(time);
+        }
+    }
+
+    @Override
+    public void onError() {
+        failed = true;
+
+        // Hold the error for the next view rather than touching a dead one
+        if (observer != null) {
+            observer.onError();
+        } else {
+            errorPending = true;
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Process-wide cache of the weather icon font and glyph table, loaded once.
+ */
+
+import android.content.Context;
+import android.graphics.Typeface;
+
+class WeatherIcons {
+
+    private static final String FONT = "fonts/weathericons.ttf";
+
+    private static WeatherIcons instance;
+
+    private final Typeface typeface;
+    private final GlyphTable glyphs;
+
+    private WeatherIcons(Context context) {
+        typeface = Typeface.createFromAsset(context.getAssets(), FONT);
+        glyphs = new GlyphTable(context.getString(R.string.weather_thunder), context.getString(R.string.weather_drizzle),
+                context.getString(R.string.weather_rainy), context.getString(R.string.weather_snowy),
+                context.getString(R.string.weather_foggy), context.getString(R.string.weather_cloudy),
+                context.getString(R.string.weather_sunny), context.getString(R.string.weather_clear_night));
+    }
+
+    /**
+     * Returns the shared instance, loading the font on first use.
+     */
+    static synchronized WeatherIcons get(Context context) {
+        if (instance == null) {
+            instance = new WeatherIcons(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    Typeface getTypeface() {
+        return typeface;
+    }
+
+    GlyphTable getGlyphs() {
+        return glyphs;
+    }
+
+}
@@ -0,0 +1,349 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Streaming decoder for Open Weather Map responses. Reads tokens straight off the stream and
+ * skips every field the app does not display.
+ */
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+class WeatherParser {
+
+    private static final String SUCCESS = "200";
+
+    /**
+     * Decodes a response body into a model, or null if the response reports an error.
+     */
+    interface Decoder<T> {
+
+        T decode(InputStream in) throws IOException;
+    }
+
+    static final Decoder<CurrentWeather> CURRENT = new Decoder<CurrentWeather>() {
+        @Override
+        public CurrentWeather decode(InputStream in) throws IOException {
+            return parseCurrent(in);
+        }
+    };
+
+    static final Decoder<Forecast> FORECAST = new Decoder<Forecast>() {
+        @Override
+        public Forecast decode(InputStream in) throws IOException {
+            return parseForecast(in);
+        }
+    };
+
+    static final Decoder<List<CurrentWeather>> GROUP = new Decoder<List<CurrentWeather>>() {
+        @Override
+        public List<CurrentWeather> decode(InputStream in) throws IOException {
+            return parseGroup(in);
+        }
+    };
+
+    /**
+     * Parses a current weather response.
+     */
+    static CurrentWeather parseCurrent(InputStream in) throws IOException {
+        return readCurrent(new JsonReader(new InputStreamReader(in, "UTF-8")), true);
+    }
+
+    /**
+     * Parses a group response holding current conditions for several city ids.
+     */
+    static List<CurrentWeather> parseGroup(InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        List<CurrentWeather> list = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("list")) {
+                list = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    // Group elements carry no status code of their own
+                    list.add(readCurrent(reader, false));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // Errors are reported as a bare status object without a list
+        return list;
+    }
+
+    /**
+     * Reads a current weather object, returning null if requireSuccess is set and the object does
+     * not report success.
+     */
+    private static CurrentWeather readCurrent(JsonReader reader, boolean requireSuccess) throws IOException {
+        String cod = null;
+        int cityId = 0;
+        String city = null;
+        String country = null;
+        Condition condition = new Condition();
+        Main main = new Main();
+        double windSpeed = 0;
+        long sunrise = 0;
+        long sunset = 0;
+        long observedAt = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "cod":
+                    cod = reader.nextString();
+                    break;
+                case "id":
+                    cityId = reader.nextInt();
+                    break;
+                case "name":
+                    city = reader.nextString();
+                    break;
+                case "weather":
+                    readWeather(reader, condition);
+                    break;
+                case "main":
+                    readMain(reader, main);
+                    break;
+                case "wind":
+                    windSpeed = readWindSpeed(reader);
+                    break;
+                case "dt":
+                    observedAt = reader.nextLong() * 1000;
+                    break;
+                case "sys":
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "country":
+                                country = reader.nextString();
+                                break;
+                            case "sunrise":
+                                sunrise = reader.nextLong() * 1000;
+                                break;
+                            case "sunset":
+                                sunset = reader.nextLong() * 1000;
+                                break;
+                            default:
+                                reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (requireSuccess && !SUCCESS.equals(cod)) {
+            return null;
+        }
+
+        return new CurrentWeather(cityId, city, country, condition.id, condition.description, main.temperature,
+                main.humidity, main.pressure, windSpeed, sunrise, sunset, observedAt);
+    }
+
+    /**
+     * Parses a 5 day/3 hour forecast response.
+     */
+    static Forecast parseForecast(InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+
+        String cod = null;
+        Forecast.Builder forecast = new Forecast.Builder(40);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "cod":
+                    cod = reader.nextString();
+                    break;
+                case "list":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readForecastEntry(reader, forecast);
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!SUCCESS.equals(cod)) {
+            return null;
+        }
+
+        return forecast.build();
+    }
+
+    /**
+     * Reads one element of the forecast list into forecast.
+     */
+    private static void readForecastEntry(JsonReader reader, Forecast.Builder forecast) throws IOException {
+        long time = 0;
+        Condition condition = new Condition();
+        Main main = new Main();
+        double windSpeed = 0;
+        double precipitation = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "dt":
+                    time = reader.nextLong() * 1000;
+                    break;
+                case "rain":
+                case "snow":
+                    precipitation += readPrecipitation(reader);
+                    break;
+                case "weather":
+                    readWeather(reader, condition);
+                    break;
+                case "main":
+                    readMain(reader, main);
+                    break;
+                case "wind":
+                    windSpeed = readWindSpeed(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        forecast.add(time, condition.id, condition.description, main.temperature, main.temperatureMin,
+                main.temperatureMax, main.humidity, main.pressure, windSpeed, precipitation);
+    }
+
+    /**
+     * Reads the first element of a "weather" array.
+     */
+    private static void readWeather(JsonReader reader, Condition condition) throws IOException {
+        reader.beginArray();
+        boolean first = true;
+
+        while (reader.hasNext()) {
+            if (!first) {
+                reader.skipValue();
+                continue;
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id":
+                        condition.id = reader.nextInt();
+                        break;
+                    case "description":
+                        condition.description = reader.nextString();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            first = false;
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Reads a "main" object.
+     */
+    private static void readMain(JsonReader reader, Main main) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "temp":
+                    main.temperature = reader.nextDouble();
+                    break;
+                case "temp_min":
+                    main.temperatureMin = reader.nextDouble();
+                    break;
+                case "temp_max":
+                    main.temperatureMax = reader.nextDouble();
+                    break;
+                case "humidity":
+                    main.humidity = (int) Math.round(reader.nextDouble());
+                    break;
+                case "pressure":
+                    main.pressure = reader.nextDouble();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads the speed from a "wind" object.
+     */
+    private static double readWindSpeed(JsonReader reader) throws IOException {
+        double speed = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("speed") && reader.peek() != JsonToken.NULL) {
+                speed = reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return speed;
+    }
+
+    /**
+     * Reads the 3 hour volume from a "rain" or "snow" object, which may be empty.
+     */
+    private static double readPrecipitation(JsonReader reader) throws IOException {
+        double volume = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("3h") && reader.peek() != JsonToken.NULL) {
+                volume = reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return volume;
+    }
+
+    /**
+     * Scratch holder for a "weather" element.
+     */
+    private static class Condition {
+        int id;
+        String description = "";
+    }
+
+    /**
+     * Scratch holder for a "main" object.
+     */
+    private static class Main {
+        double temperature;
+        double temperatureMin;
+        double temperatureMax;
+        int humidity;
+        double pressure;
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Source of current conditions and forecasts. Implementations block until a result is available
+ * and return null on failure, so they must be called off the main thread.
+ */
+
+interface WeatherProvider {
+
+    /**
+     * Returns a short name for logs and metrics.
+     */
+    String getName();
+
+    /**
+     * Returns whether a request would be answered from a fresh local copy, without the network.
+     */
+    boolean isFresh(WeatherQuery query, boolean forecast);
+
+    CurrentWeather getCurrentWeather(WeatherQuery query, FetchHandle handle);
+
+    Forecast getForecast(WeatherQuery query, FetchHandle handle);
+
+}
@@ -0,0 +1,49 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Builds the application-wide weather provider from resources: Open Weather Map, hedged with a
+ * secondary endpoint when one is configured. The secondary never sees the Open Weather Map key or
+ * spends its quota; it has its own key and budget, if any.
+ */
+
+import android.content.Context;
+import android.content.res.Resources;
+
+class WeatherProviders {
+
+    private static WeatherProvider instance;
+
+    private WeatherProviders() {
+    }
+
+    /**
+     * Returns the shared provider.
+     */
+    static synchronized WeatherProvider get(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            Resources res = app.getResources();
+
+            WeatherProvider primary = new OpenWeatherMapProvider("owm", OpenWeatherMapProvider.DEFAULT_BASE_URL,
+                    res.getString(R.string.open_weather_maps_app_id), HttpTransport.get(app), ResponseCache.get(app),
+                    RequestBudget.get(app));
+            String secondaryUrl = res.getString(R.string.secondary_base_url);
+
+            if (secondaryUrl.isEmpty()) {
+                instance = primary;
+            } else {
+                int quota = res.getInteger(R.integer.secondary_quota_per_minute);
+                RequestBudget budget = quota == 0 ? null : new RequestBudget(quota,
+                        res.getInteger(R.integer.secondary_burst), res.getInteger(R.integer.api_max_wait_ms));
+
+                WeatherProvider secondary = new OpenWeatherMapProvider("secondary", secondaryUrl,
+                        res.getString(R.string.secondary_api_key), HttpTransport.get(app), ResponseCache.get(app),
+                        budget);
+                instance = new HedgedProvider(primary, secondary, res.getInteger(R.integer.hedge_min_samples),
+                        res.getInteger(R.integer.hedge_min_delay_ms), res.getInteger(R.integer.hedge_default_delay_ms));
+            }
+        }
+        return instance;
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Location for a weather request. Data is always fetched in metric units.
+ */
+
+import android.content.SharedPreferences;
+
+class WeatherQuery {
+
+    final int zipCode;
+    final float lat;
+    final float lon;
+    final boolean usingLat;
+
+    /**
+     * Constructs query from either a zip code or latitude/longitude.
+     */
+    WeatherQuery(int zipCode, float lat, float lon, boolean usingLat) {
+        this.zipCode = zipCode;
+        this.lat = lat;
+        this.lon = lon;
+        this.usingLat = usingLat;
+    }
+
+    /**
+     * Reads the saved location. Coordinates are stored already snapped to their grid cell center.
+     */
+    static WeatherQuery fromPreferences(SharedPreferences pref) {
+        return new WeatherQuery(pref.getInt("zip", 94720), pref.getFloat("lat", 0), pref.getFloat("lon", 0),
+                pref.getBoolean("using_lat", false));
+    }
+
+    /**
+     * Returns the location part of a request URL.
+     */
+    String getLocationParameter() {
+        if (usingLat) {
+            return "lat=" + lat + "&lon=" + lon;
+        }
+        return "zip=" + zipCode + ",us";
+    }
+
+    /**
+     * Returns a key identifying the location.
+     */
+    String getKey() {
+        return getLocationParameter();
+    }
+
+}
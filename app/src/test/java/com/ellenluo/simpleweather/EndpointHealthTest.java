@@ -0,0 +1,126 @@
+package com.ellenluo.simpleweather;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the circuit breaker and adaptive timeout with explicit times.
+ */
+public class EndpointHealthTest {
+
+    // Timeouts between 1 and 10 s, opening after 3 failures for 30 s
+    private final EndpointHealth health = new EndpointHealth(1000, 10000, 3, 30000);
+
+    @Test
+    public void timeoutStartsAtMaximum() {
+        assertEquals(10000, health.getTimeout(10000));
+        assertEquals(5000, health.getTimeout(5000));
+    }
+
+    @Test
+    public void timeoutFollowsRecentLatency() {
+        for (int i = 0; i < 20; i++) {
+            health.recordSuccess(500);
+        }
+        assertEquals(1500, health.getTimeout(10000));
+
+        // Once the slow samples have left the window
+        for (int i = 0; i < 64; i++) {
+            health.recordSuccess(100);
+        }
+        assertEquals(1000, health.getTimeout(10000));
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        health.recordFailure(0);
+        health.recordFailure(0);
+        health.recordSuccess(100);
+        health.recordFailure(0);
+        health.recordFailure(0);
+        assertEquals(EndpointHealth.CLOSED, health.getState());
+
+        health.recordFailure(0);
+        assertEquals(EndpointHealth.OPEN, health.getState());
+        assertTrue(health.isRejecting(1000));
+        assertFalse(health.allowRequest(1000));
+        assertEquals(1, health.getRejectedCount());
+    }
+
+    @Test
+    public void singleProbeClosesAfterCoolDown() {
+        open(0);
+
+        assertFalse(health.isRejecting(30000));
+        assertTrue(health.allowRequest(30000));
+        assertEquals(EndpointHealth.HALF_OPEN, health.getState());
+
+        // Only one probe at a time
+        assertTrue(health.isRejecting(30001));
+        assertFalse(health.allowRequest(30001));
+
+        health.recordSuccess(100);
+        assertEquals(EndpointHealth.CLOSED, health.getState());
+        assertTrue(health.allowRequest(30002));
+    }
+
+    @Test
+    public void failedProbeReopens() {
+        open(0);
+
+        assertTrue(health.allowRequest(30000));
+        health.recordFailure(30500);
+        assertEquals(EndpointHealth.OPEN, health.getState());
+        assertEquals(2, health.getOpenCount());
+        assertFalse(health.allowRequest(60000));
+        assertTrue(health.allowRequest(60500));
+    }
+
+    @Test
+    public void lostProbeIsReplaced() {
+        open(0);
+
+        assertTrue(health.allowRequest(30000));
+        assertFalse(health.allowRequest(40000));
+        assertTrue(health.allowRequest(40001));
+    }
+
+    @Test
+    public void recoversWhenLatencyShifts() {
+        for (int i = 0; i < 20; i++) {
+            health.recordSuccess(200);
+        }
+        assertEquals(1000, health.getTimeout(10000));
+
+        // The endpoint now takes 3 s, so every request hits the 1 s timeout
+        for (int i = 0; i < 3; i++) {
+            assertTrue(health.allowRequest(0));
+            health.recordTimeout(0, health.getTimeout(10000));
+        }
+        assertEquals(EndpointHealth.OPEN, health.getState());
+
+        // The probe gets the full timeout and succeeds
+        assertTrue(health.allowRequest(30000));
+        assertEquals(10000, health.getTimeout(10000));
+        health.recordSuccess(3000);
+        assertEquals(EndpointHealth.CLOSED, health.getState());
+
+        // The timed out samples have already raised the timeout past the new latency
+        assertTrue(health.getTimeout(10000) > 3000);
+        for (int i = 0; i < 64; i++) {
+            assertTrue(health.allowRequest(33000 + i * 3000));
+            health.recordSuccess(3000);
+        }
+        assertEquals(EndpointHealth.CLOSED, health.getState());
+        assertEquals(9000, health.getTimeout(10000));
+    }
+
+    private void open(long now) {
+        for (int i = 0; i < 3; i++) {
+            health.recordFailure(now);
+        }
+        assertEquals(EndpointHealth.OPEN, health.getState());
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.ellenluo.simpleweather;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Groups hand-built forecasts into days and checks each day's summary.
+ */
+public class ForecastDayTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final TimeZone TOKYO = TimeZone.getTimeZone("Asia/Tokyo");
+    private static final TimeZone NEW_YORK = TimeZone.getTimeZone("America/New_York");
+
+    @Test
+    public void splitsDaysAtLocalMidnight() {
+        // 16 entries, 3 hours apart, from midnight UTC on 30 January 2017
+        long start = time(UTC, 2017, Calendar.JANUARY, 30, 0);
+        Forecast.Builder builder = new Forecast.Builder(16);
+        for (int i = 0; i < 16; i++) {
+            add(builder, start + i * 3 * HOUR, 800, 10, 0, 0);
+        }
+        Forecast forecast = builder.build();
+
+        List<ForecastDay> utc = ForecastDay.aggregate(forecast, UTC);
+        assertEquals(2, utc.size());
+        assertDay(utc.get(0), start, 0, 8);
+        assertDay(utc.get(1), start + 24 * HOUR, 8, 8);
+
+        // Tokyo is 9 hours ahead, so its 30 January ends at 15:00 UTC
+        List<ForecastDay> tokyo = ForecastDay.aggregate(forecast, TOKYO);
+        assertEquals(3, tokyo.size());
+        assertDay(tokyo.get(0), time(TOKYO, 2017, Calendar.JANUARY, 30, 0), 0, 5);
+        assertDay(tokyo.get(1), time(TOKYO, 2017, Calendar.JANUARY, 31, 0), 5, 8);
+        assertDay(tokyo.get(2), time(TOKYO, 2017, Calendar.FEBRUARY, 1, 0), 13, 3);
+    }
+
+    @Test
+    public void keepsNineEntriesOnDaylightSavingEnd() {
+        // 6 November 2016 lasts 25 hours in New York, so 3 hourly entries from midnight fit 9 times
+        long start = time(NEW_YORK, 2016, Calendar.NOVEMBER, 6, 0);
+        Forecast.Builder builder = new Forecast.Builder(10);
+        for (int i = 0; i < 10; i++) {
+            // Every entry has its own condition, more than a regular day can hold
+            add(builder, start + i * 3 * HOUR, 500 + i, i, 0, 1);
+        }
+
+        List<ForecastDay> days = ForecastDay.aggregate(builder.build(), NEW_YORK);
+        assertEquals(2, days.size());
+        assertDay(days.get(0), start, 0, 9);
+        assertDay(days.get(1), time(NEW_YORK, 2016, Calendar.NOVEMBER, 7, 0), 9, 1);
+
+        // All conditions tie, so the earliest wins, and the ninth entry still counts towards totals
+        assertEquals(500, days.get(0).conditionId);
+        assertEquals(9, days.get(0).precipitation, 1e-6);
+        assertEquals(9, days.get(0).temperatureMax, 1e-6);
+    }
+
+    @Test
+    public void picksMostFrequentConditionWithEarliestWinningTies() {
+        long start = time(UTC, 2017, Calendar.JANUARY, 30, 0);
+        Forecast.Builder builder = new Forecast.Builder(16);
+        int[] first = {801, 500, 800, 500, 800, 801, 800, 500};
+        int[] second = {801, 500, 800, 800, 500, 801, 800, 800};
+        for (int i = 0; i < 8; i++) {
+            add(builder, start + i * 3 * HOUR, first[i], 10, 0, 0);
+        }
+        for (int i = 0; i < 8; i++) {
+            add(builder, start + (8 + i) * 3 * HOUR, second[i], 10, 0, 0);
+        }
+
+        List<ForecastDay> days = ForecastDay.aggregate(builder.build(), UTC);
+
+        // 500 and 800 both appear three times; 500 came first
+        assertEquals(500, days.get(0).conditionId);
+        assertEquals("condition 500", days.get(0).description);
+
+        // 800 appears four times, more than any other
+        assertEquals(800, days.get(1).conditionId);
+        assertEquals("condition 800", days.get(1).description);
+    }
+
+    @Test
+    public void sumsPrecipitationAndTakesPeakWind() {
+        long start = time(UTC, 2017, Calendar.JANUARY, 30, 0);
+        double[] winds = {2, 5.5, 3, 8.25, 1, 0, 4, 7};
+        double[] rain = {0, 0.5, 1.25, 0, 3, 0, 0.25, 1};
+        Forecast.Builder builder = new Forecast.Builder(8);
+        for (int i = 0; i < 8; i++) {
+            add(builder, start + i * 3 * HOUR, 500, 10, winds[i], rain[i]);
+        }
+
+        ForecastDay day = ForecastDay.aggregate(builder.build(), UTC).get(0);
+        assertEquals(8.25, day.windSpeedMax, 1e-6);
+        assertEquals(6, day.precipitation, 1e-6);
+    }
+
+    @Test
+    public void takesMaxAndMinFromTheirOwnColumns() {
+        long start = time(UTC, 2017, Calendar.JANUARY, 30, 0);
+        Forecast.Builder builder = new Forecast.Builder(4);
+        builder.add(start, 800, "clear sky", 10, 8, 12, 60, 1012, 2, 0);
+        builder.add(start + 3 * HOUR, 800, "clear sky", 4, 3, 5, 60, 1012, 2, 0);
+        builder.add(start + 6 * HOUR, 800, "clear sky", 14, 13, 16, 60, 1012, 2, 0);
+        builder.add(start + 9 * HOUR, 800, "clear sky", 8, -1, 9, 60, 1012, 2, 0);
+
+        ForecastDay day = ForecastDay.aggregate(builder.build(), UTC).get(0);
+        assertEquals(16, day.temperatureMax, 1e-6);
+        assertEquals(-1, day.temperatureMin, 1e-6);
+        assertTrue(day.temperatureMin <= day.temperatureMean && day.temperatureMean <= day.temperatureMax);
+        assertEquals(9, day.temperatureMean, 1e-6);
+    }
+
+    private static void add(Forecast.Builder builder, long time, int conditionId, double temperature,
+                            double windSpeed, double precipitation) {
+        builder.add(time, conditionId, "condition " + conditionId, temperature, temperature - 1, temperature + 1, 60,
+                1012, windSpeed, precipitation);
+    }
+
+    private static void assertDay(ForecastDay day, long time, int first, int count) {
+        assertEquals(time, day.time);
+        assertEquals(first, day.first);
+        assertEquals(count, day.count);
+    }
+
+    private static long time(TimeZone timeZone, int year, int month, int day, int hour) {
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.clear();
+        calendar.set(year, month, day, hour, 0);
+        return calendar.getTimeInMillis();
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.ellenluo.simpleweather;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hedges between two local stub servers standing in for the primary and secondary endpoints.
+ */
+public class HedgedProviderTest {
+
+    private static final WeatherQuery QUERY = new WeatherQuery(94720, 0, 0, false);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubWeatherServer primaryServer;
+    private StubWeatherServer secondaryServer;
+    private RequestBudget budget;
+    private HedgedProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        primaryServer = StubWeatherServer.start(1);
+        secondaryServer = StubWeatherServer.start(2);
+        budget = new RequestBudget(1000, 1000, 0);
+        provider = newProvider(0);
+    }
+
+    @After
+    public void tearDown() {
+        primaryServer.close();
+        secondaryServer.close();
+    }
+
+    @Test
+    public void fastPrimaryIsNotHedged() {
+        assertNotNull(provider.getCurrentWeather(QUERY, new FetchHandle()));
+        assertEquals(0, provider.getHedgedCount());
+        assertEquals(0, secondaryServer.getRequestCount());
+    }
+
+    @Test
+    public void slowPrimaryIsHedged() {
+        primaryServer.setFaults(new StubWeatherServer.Faults().latency(2000, 0));
+
+        long start = System.nanoTime();
+        assertNotNull(provider.getForecast(QUERY, new FetchHandle()));
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        assertTrue(elapsed < 1000);
+        assertEquals(1, provider.getHedgedCount());
+        assertEquals(1, provider.getSecondaryWinCount());
+    }
+
+    @Test
+    public void failedPrimaryFallsBackToSecondary() {
+        primaryServer.setFaults(new StubWeatherServer.Faults().errors(1, 503));
+
+        assertNotNull(provider.getCurrentWeather(QUERY, new FetchHandle()));
+        assertEquals(1, provider.getSecondaryWinCount());
+    }
+
+    @Test
+    public void staleAnswerFromFailedPrimaryIsHedged() {
+        assertNotNull(provider.getCurrentWeather(QUERY, new FetchHandle()));
+        primaryServer.setFaults(new StubWeatherServer.Faults().errors(1, 503));
+
+        // The primary can only offer its outdated copy, so each request goes to the secondary as well
+        for (int i = 0; i < 20; i++) {
+            FetchHandle handle = new FetchHandle();
+            assertNotNull(provider.getCurrentWeather(QUERY, handle));
+            assertFalse(handle.isStale());
+        }
+        assertEquals(20, provider.getSecondaryWinCount());
+        assertEquals(20, secondaryServer.getRequestCount());
+
+        // Only the first, healthy request counted towards the latency window
+        assertEquals(100, provider.getCurrentDelay());
+    }
+
+    @Test
+    public void staleCopyIsServedWhenSecondaryAlsoFails() {
+        assertNotNull(provider.getCurrentWeather(QUERY, new FetchHandle()));
+        primaryServer.setFaults(new StubWeatherServer.Faults().errors(1, 503));
+        secondaryServer.setFaults(new StubWeatherServer.Faults().errors(1, 503));
+
+        FetchHandle handle = new FetchHandle();
+        assertNotNull(provider.getCurrentWeather(QUERY, handle));
+        assertTrue(handle.isStale());
+        assertEquals(1, secondaryServer.getRequestCount());
+        assertEquals(0, provider.getSecondaryWinCount());
+    }
+
+    @Test
+    public void secondaryUsesOwnKeyAndNoPrimaryBudget() {
+        primaryServer.setFaults(new StubWeatherServer.Faults().latency(500, 0));
+
+        assertNotNull(provider.getCurrentWeather(QUERY, new FetchHandle()));
+        assertEquals(1, provider.getSecondaryWinCount());
+        assertEquals("secondary-key", secondaryServer.getLastApiKey());
+        assertEquals("primary-key", primaryServer.getLastApiKey());
+        assertEquals(1, budget.getGrantedCount());
+    }
+
+    @Test
+    public void resultWonBySecondaryIsServedFresh() throws Exception {
+        provider = newProvider(60 * 1000);
+        primaryServer.setFaults(new StubWeatherServer.Faults().errors(1, 503));
+
+        assertNotNull(provider.getCurrentWeather(QUERY, new FetchHandle()));
+        assertTrue(provider.isFresh(QUERY, false));
+        assertNotNull(provider.getCurrentWeather(QUERY, new FetchHandle()));
+        assertEquals(1, primaryServer.getRequestCount());
+        assertEquals(1, secondaryServer.getRequestCount());
+    }
+
+    @Test
+    public void hedgeDelayFollowsPrimaryLatency() {
+        for (int i = 0; i < 20; i++) {
+            assertNotNull(provider.getCurrentWeather(QUERY, new FetchHandle()));
+        }
+
+        // Local requests are fast, so the delay drops from the default to the floor
+        assertEquals(50, provider.getCurrentDelay());
+    }
+
+    /**
+     * Hedges after 100 ms, since there are no latency samples yet. The secondary has its own key
+     * and no budget, as configured in the app.
+     */
+    private HedgedProvider newProvider(long freshnessMillis) throws Exception {
+        HttpTransport transport = new HttpTransport(5000, 5000, 4);
+        ResponseCache cache = new ResponseCache(folder.newFolder(), freshnessMillis, 1024 * 1024);
+
+        return new HedgedProvider(
+                new OpenWeatherMapProvider("primary", primaryServer.baseUrl(), "primary-key", transport, cache, budget),
+                new OpenWeatherMapProvider("secondary", secondaryServer.baseUrl(), "secondary-key", transport, cache,
+                        null),
+                20, 50, 100);
+    }
+
+}
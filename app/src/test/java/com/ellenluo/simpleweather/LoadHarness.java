@@ -0,0 +1,189 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Drives the app's fetch path (coalescing, response cache, transport and streaming parser)
+ * against a StubWeatherServer with many concurrent clients, and reports throughput and latency
+ * percentiles. Run main for the standard scenarios, or call run from a test.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class LoadHarness {
+
+    /**
+     * Load to generate. Each client issues its requests back to back, alternating between current
+     * conditions and forecast for a random one of locations.
+     */
+    static class Scenario {
+
+        final String name;
+        final int clients;
+        final int requestsPerClient;
+        final int locations;
+        final long cacheFreshnessMillis;
+
+        Scenario(String name, int clients, int requestsPerClient, int locations, long cacheFreshnessMillis) {
+            this.name = name;
+            this.clients = clients;
+            this.requestsPerClient = requestsPerClient;
+            this.locations = locations;
+            this.cacheFreshnessMillis = cacheFreshnessMillis;
+        }
+    }
+
+    /**
+     * Outcome of a run. Latencies are in microseconds, sorted ascending.
+     */
+    static class Report {
+
+        final String name;
+        final long[] latencies;
+        final int failures;
+        final int serverRequests;
+        final long elapsedNanos;
+
+        Report(String name, long[] latencies, int failures, int serverRequests, long elapsedNanos) {
+            this.name = name;
+            this.latencies = latencies;
+            this.failures = failures;
+            this.serverRequests = serverRequests;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Returns completed requests per second.
+         */
+        double getThroughput() {
+            return latencies.length * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Returns the latency at percentile in microseconds.
+         */
+        long getPercentile(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(latencies.length * percentile / 100) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-14s %6d req %5d fail %6d upstream %9.1f req/s  p50 %7.1f  p95 %7.1f  p99 %7.1f  max %7.1f ms",
+                    name, latencies.length, failures, serverRequests, getThroughput(), getPercentile(50) / 1000.0,
+                    getPercentile(95) / 1000.0, getPercentile(99) / 1000.0, getPercentile(100) / 1000.0);
+        }
+    }
+
+    /**
+     * Runs scenario against server, using a fresh response cache in cacheDir.
+     */
+    static Report run(final StubWeatherServer server, final Scenario scenario, File cacheDir) throws InterruptedException {
+        final HttpTransport transport = new HttpTransport(10000, 15000, scenario.clients);
+        final ResponseCache cache = new ResponseCache(cacheDir, scenario.cacheFreshnessMillis, 4 * 1024 * 1024);
+
+
+        final long[] latencies = new long[scenario.clients * scenario.requestsPerClient];
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(scenario.clients);
+        int requestsBefore = server.getRequestCount();
+
+        List<Thread> threads = new ArrayList<>(scenario.clients);
+        for (int c = 0; c < scenario.clients; c++) {
+            // Seeded per client so every run issues the same request sequence
+            final Random random = new Random(c);
+
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+
+                        for (int i = 0; i < scenario.requestsPerClient; i++) {
+                            String location = "zip=" + (94700 + random.nextInt(scenario.locations)) + ",us";
+                            boolean forecast = i % 2 == 1;
+                            URL url = server.url(forecast ? "forecast" : "weather", location);
+
+                            long begin = System.nanoTime();
+                            WeatherParser.Decoder<?> decoder = forecast ? WeatherParser.FORECAST : WeatherParser.CURRENT;
+                            Object data = RemoteFetch.getData(transport, cache, null, "test", url, new FetchHandle(), decoder);
+                            latencies[completed.getAndIncrement()] = (System.nanoTime() - begin) / 1000;
+
+                            if (data == null) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "load-" + c);
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+
+        long[] sorted = Arrays.copyOf(latencies, completed.get());
+        Arrays.sort(sorted);
+        return new Report(scenario.name, sorted, failures.get(), server.getRequestCount() - requestsBefore, elapsed);
+    }
+
+    /**
+     * Runs the standard scenarios and prints one report line each.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        StubWeatherServer server = StubWeatherServer.start(42);
+
+        try {
+            run(server, "baseline", new StubWeatherServer.Faults().noEtags(), 0);
+            run(server, "cached", new StubWeatherServer.Faults().latency(50, 50), 60 * 1000);
+            run(server, "revalidated", new StubWeatherServer.Faults().latency(50, 50), 0);
+            run(server, "latency", new StubWeatherServer.Faults().noEtags().latency(100, 100), 0);
+            run(server, "errors", new StubWeatherServer.Faults().noEtags().latency(20, 20).errors(0.05, 503)
+                    .codErrors(0.05), 0);
+            run(server, "truncated", new StubWeatherServer.Faults().noEtags().truncate(0.05), 0);
+            run(server, "slow drip", new StubWeatherServer.Faults().noEtags().drip(256, 20), 0);
+            run(server, "3G bandwidth", new StubWeatherServer.Faults().noEtags().latency(150, 50).bandwidth(48 * 1024), 0);
+        } finally {
+            server.close();
+        }
+    }
+
+    private static void run(StubWeatherServer server, String name, StubWeatherServer.Faults faults,
+                            long cacheFreshnessMillis) throws IOException, InterruptedException {
+        File cacheDir = File.createTempFile("load", "cache");
+        cacheDir.delete();
+
+        try {
+            server.setFaults(faults);
+            System.out.println(run(server, new Scenario(name, 32, 50, 20, cacheFreshnessMillis), cacheDir));
+        } finally {
+            File[] files = cacheDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            cacheDir.delete();
+        }
+    }
+
+}
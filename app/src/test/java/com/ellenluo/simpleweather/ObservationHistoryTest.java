@@ -0,0 +1,132 @@
+package com.ellenluo.simpleweather;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Appends observations at explicit times and reads them back by range.
+ */
+public class ObservationHistoryTest {
+
+    private static final String KEY = "zip=94720,us";
+    private static final long MINUTE = 60 * 1000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private ObservationHistory history;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder();
+        history = new ObservationHistory(dir, 1000, 10 * MINUTE, DAY);
+    }
+
+    @Test
+    public void queriesInclusiveRange() {
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(history.append(KEY, weather(i * HOUR, i)));
+        }
+
+        ObservationHistory.Range range = history.query(KEY, 2 * HOUR, 5 * HOUR);
+        assertEquals(4, range.size());
+        assertEquals(2 * HOUR, range.getTime(0));
+        assertEquals(5 * HOUR, range.getTime(3));
+        assertEquals(2, range.getTemperature(0), 0);
+        assertEquals(2, range.getTemperatureMin(), 0);
+        assertEquals(5, range.getTemperatureMax(), 0);
+        assertEquals(3.5, range.getTemperatureMean(), 1e-6);
+        assertEquals(62, range.getHumidity(0));
+        assertEquals(800, range.getConditionId(0));
+    }
+
+    @Test
+    public void emptyRanges() {
+        assertEquals(0, history.query(KEY, 0, Long.MAX_VALUE).size());
+
+        history.append(KEY, weather(HOUR, 1));
+        assertEquals(0, history.query(KEY, 2 * HOUR, 3 * HOUR).size());
+        assertEquals(0, history.query(KEY, 0, HOUR - 1).size());
+        assertTrue(Double.isNaN(history.query(KEY, 0, 0).getTemperatureMean()));
+    }
+
+    @Test
+    public void dropsObservationsTooCloseOrOutOfOrder() {
+        assertTrue(history.append(KEY, weather(HOUR, 1)));
+        assertFalse(history.append(KEY, weather(HOUR + 5 * MINUTE, 2)));
+        assertFalse(history.append(KEY, weather(30 * MINUTE, 3)));
+        assertTrue(history.append(KEY, weather(HOUR + 10 * MINUTE, 4)));
+        assertEquals(2, history.getCount(KEY));
+    }
+
+    @Test
+    public void dropsRepeatedAndUntimedObservations() {
+        CurrentWeather observation = weather(HOUR, 1);
+        assertTrue(history.append(KEY, observation));
+
+        // The same observation served again from cache, hours later
+        assertFalse(history.append(KEY, observation));
+        assertFalse(history.append(KEY, weather(0, 2)));
+        assertEquals(1, history.getCount(KEY));
+    }
+
+    @Test
+    public void keepsLocationsApart() {
+        history.append(KEY, weather(HOUR, 1));
+        history.append("lat=37.87&lon=-122.27", weather(HOUR, 2));
+
+        assertEquals(1, history.query(KEY, 0, Long.MAX_VALUE).size());
+        assertEquals(2, history.query("lat=37.87&lon=-122.27", 0, Long.MAX_VALUE).getTemperature(0), 0);
+    }
+
+    @Test
+    public void recoversFromTornRecord() throws Exception {
+        history.append(KEY, weather(HOUR, 1));
+
+        // Half a record, as left by a crash mid-write
+        RandomAccessFile file = new RandomAccessFile(dir.listFiles()[0], "rw");
+        file.setLength(file.length() + ObservationHistory.RECORD_SIZE / 2);
+        file.close();
+
+        assertEquals(1, history.query(KEY, 0, Long.MAX_VALUE).size());
+        assertTrue(history.append(KEY, weather(2 * HOUR, 2)));
+        assertEquals(2 * HOUR, history.query(KEY, 0, Long.MAX_VALUE).getTime(1));
+    }
+
+    @Test
+    public void compactsOldRecordsWhenFull() {
+        // 10 minute observations over 10 days overflow the 1000 record limit
+        long end = 10 * DAY;
+        for (long time = 10 * MINUTE; time < end; time += 10 * MINUTE) {
+            history.append(KEY, weather(time, 1));
+        }
+
+        int count = history.getCount(KEY);
+        assertTrue(count <= 1000);
+
+        // Data within a day of the compaction keeps full resolution, older data at most one per hour
+        ObservationHistory.Range recent = history.query(KEY, end - DAY + 10 * MINUTE, end);
+        assertTrue(recent.size() >= 143);
+        ObservationHistory.Range old = history.query(KEY, 0, end - 5 * DAY);
+        for (int i = 1; i < old.size(); i++) {
+            assertTrue(old.getTime(i) / HOUR > old.getTime(i - 1) / HOUR);
+        }
+        assertEquals(end - 10 * MINUTE, history.query(KEY, 0, Long.MAX_VALUE).getTime(count - 1));
+    }
+
+    private static CurrentWeather weather(long observedAt, int temperature) {
+        return new CurrentWeather(5327684, "Berkeley", "US", 800, "clear sky", temperature, 60 + temperature,
+                1016, 4.6, 0, 0, observedAt);
+    }
+
+}
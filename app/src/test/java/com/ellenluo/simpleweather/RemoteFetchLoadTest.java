@@ -0,0 +1,233 @@
+package com.ellenluo.simpleweather;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URL;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises the fetch path against the local stub server, without a device or the real API.
+ */
+public class RemoteFetchLoadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubWeatherServer server;
+    private HttpTransport transport;
+    private RequestBudget budget;
+
+    @Before
+    public void setUp() throws Exception {
+        server = StubWeatherServer.start(42);
+        transport = new HttpTransport(5000, 5000, 4);
+        // No budget unless a test sets one
+        budget = null;
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void decodesSyntheticPayloads() throws Exception {
+        ResponseCache cache = newCache(0);
+
+        CurrentWeather current = fetch(cache, server.url("weather", "zip=94720,us"), WeatherParser.CURRENT);
+        Forecast forecast = fetch(cache, server.url("forecast", "zip=94720,us"), WeatherParser.FORECAST);
+
+        assertNotNull(current);
+        assertEquals("Berkeley", current.city);
+        assertNotNull(forecast);
+        assertEquals(40, forecast.size());
+    }
+
+    @Test
+    public void httpErrorIsFailure() throws Exception {
+        server.setFaults(new StubWeatherServer.Faults().errors(1, 503));
+        assertNull(fetch(newCache(0), server.url("weather", "zip=94720,us"), WeatherParser.CURRENT));
+    }
+
+    @Test
+    public void errorCodInBodyIsFailure() throws Exception {
+        server.setFaults(new StubWeatherServer.Faults().codErrors(1));
+        assertNull(fetch(newCache(0), server.url("weather", "zip=94720,us"), WeatherParser.CURRENT));
+    }
+
+    @Test
+    public void truncatedBodyIsFailureAndNotCached() throws Exception {
+        ResponseCache cache = newCache(60 * 1000);
+        URL url = server.url("forecast", "zip=94720,us");
+
+        server.setFaults(new StubWeatherServer.Faults().truncate(1));
+        assertNull(fetch(cache, url, WeatherParser.FORECAST));
+
+        server.setFaults(new StubWeatherServer.Faults());
+        assertNotNull(fetch(cache, url, WeatherParser.FORECAST));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void staleEntryIsRevalidated() throws Exception {
+        ResponseCache cache = newCache(0);
+        URL url = server.url("weather", "zip=94720,us");
+
+        assertNotNull(fetch(cache, url, WeatherParser.CURRENT));
+        assertNotNull(fetch(cache, url, WeatherParser.CURRENT));
+        assertEquals(1, server.getNotModifiedCount());
+    }
+
+    @Test
+    public void freshEntryIsServedFromCache() throws Exception {
+        ResponseCache cache = newCache(60 * 1000);
+        URL url = server.url("weather", "zip=94720,us");
+
+        assertNotNull(fetch(cache, url, WeatherParser.CURRENT));
+        assertNotNull(fetch(cache, url, WeatherParser.CURRENT));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void undecodableFreshEntryIsEvictedAndRefetched() throws Exception {
+        File dir = folder.newFolder();
+        ResponseCache cache = new ResponseCache(dir, 60 * 1000, 1024 * 1024);
+        URL url = server.url("weather", "zip=94720,us");
+        assertNotNull(fetch(cache, url, WeatherParser.CURRENT));
+
+        // Cut the cached body short, leaving its header intact
+        File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+        RandomAccessFile file = new RandomAccessFile(files[0], "rw");
+        file.setLength(file.length() - 20);
+        file.close();
+
+        assertNotNull(fetch(cache, url, WeatherParser.CURRENT));
+        assertEquals(2, server.getRequestCount());
+
+        // The refetched copy replaced the damaged one
+        assertNotNull(fetch(cache, url, WeatherParser.CURRENT));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void exhaustedBudgetServesStaleCopy() throws Exception {
+        ResponseCache cache = newCache(0);
+        URL url = server.url("weather", "zip=94720,us");
+
+        // One token that never refills
+        budget = new RequestBudget(1, 1, 0);
+
+        assertNotNull(fetch(cache, url, WeatherParser.CURRENT));
+        assertNotNull(fetch(cache, url, WeatherParser.CURRENT));
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, budget.getStaleCount());
+    }
+
+    @Test
+    public void exhaustedBudgetWithoutCacheFails() throws Exception {
+        budget = new RequestBudget(1, 1, 50);
+
+        assertNotNull(fetch(newCache(0), server.url("weather", "zip=94720,us"), WeatherParser.CURRENT));
+        assertNull(fetch(newCache(0), server.url("weather", "zip=94721,us"), WeatherParser.CURRENT));
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, budget.getDeniedCount());
+    }
+
+    @Test
+    public void serverErrorServesStaleCopy() throws Exception {
+        ResponseCache cache = newCache(0);
+        URL url = server.url("weather", "zip=94720,us");
+
+        assertNotNull(fetch(cache, url, WeatherParser.CURRENT));
+        server.setFaults(new StubWeatherServer.Faults().errors(1, 503));
+        assertNotNull(fetch(cache, url, WeatherParser.CURRENT));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void openCircuitServesStaleCopyWithoutRequest() throws Exception {
+        ResponseCache cache = newCache(0);
+        URL url = server.url("weather", "zip=94720,us");
+
+        // Opens after two failures and stays open for the rest of the test
+        transport = new HttpTransport(5000, 5000, 4, 1000, 2, 60 * 1000);
+
+        assertNotNull(fetch(cache, url, WeatherParser.CURRENT));
+        server.setFaults(new StubWeatherServer.Faults().errors(1, 503));
+        assertNotNull(fetch(cache, url, WeatherParser.CURRENT));
+        assertNotNull(fetch(cache, url, WeatherParser.CURRENT));
+        assertEquals(3, server.getRequestCount());
+
+        assertNotNull(fetch(cache, url, WeatherParser.CURRENT));
+        assertNull(fetch(newCache(0), url, WeatherParser.CURRENT));
+        assertEquals(3, server.getRequestCount());
+        assertEquals(EndpointHealth.OPEN, transport.getEndpoints().values().iterator().next().getState());
+    }
+
+    @Test
+    public void slowDripIsCutOffAtTotalDeadline() throws Exception {
+        // Each read arrives well within the read timeout, but the whole body would take over 10 s
+        server.setFaults(new StubWeatherServer.Faults().noEtags().drip(64, 100));
+        transport = new HttpTransport(500, 500, 4);
+
+        long start = System.nanoTime();
+        assertNull(fetch(newCache(0), server.url("forecast", "zip=94720,us"), WeatherParser.FORECAST));
+        assertTrue((System.nanoTime() - start) / 1000000 < 3000);
+    }
+
+    @Test
+    public void circuitRecoversAfterLatencyShift() throws Exception {
+        // Timeouts from 50 ms to 4 s; opens after two failures for 100 ms
+        transport = new HttpTransport(2000, 2000, 4, 50, 2, 100);
+        URL url = server.url("weather", "zip=94720,us");
+
+        server.setFaults(new StubWeatherServer.Faults().noEtags().latency(10, 0));
+        for (int i = 0; i < 20; i++) {
+            assertNotNull(fetch(newCache(0), url, WeatherParser.CURRENT));
+        }
+
+        // Latency grows past the adaptive timeout, so requests fail until the circuit opens
+        server.setFaults(new StubWeatherServer.Faults().noEtags().latency(1000, 0));
+        assertNull(fetch(newCache(0), url, WeatherParser.CURRENT));
+        assertNull(fetch(newCache(0), url, WeatherParser.CURRENT));
+        EndpointHealth health = transport.getEndpoints().values().iterator().next();
+        assertEquals(EndpointHealth.OPEN, health.getState());
+
+        // The probe after the cool-down gets the full timeout and closes the circuit
+        Thread.sleep(150);
+        assertNotNull(fetch(newCache(0), url, WeatherParser.CURRENT));
+        assertEquals(EndpointHealth.CLOSED, health.getState());
+        assertNotNull(fetch(newCache(0), url, WeatherParser.CURRENT));
+    }
+
+    @Test
+    public void harnessCompletesUnderInjectedLatency() throws Exception {
+        server.setFaults(new StubWeatherServer.Faults().noEtags().latency(20, 0));
+
+        LoadHarness.Report report = LoadHarness.run(server, new LoadHarness.Scenario("latency", 8, 10, 4, 0),
+                folder.newFolder());
+
+        assertEquals(80, report.latencies.length);
+        assertEquals(0, report.failures);
+        assertTrue(report.getPercentile(50) >= 20 * 1000);
+        // Identical concurrent requests are coalesced, so upstream never sees more than were made
+        assertTrue(report.serverRequests <= 80);
+    }
+
+    private ResponseCache newCache(long freshnessMillis) throws Exception {
+        return new ResponseCache(folder.newFolder(), freshnessMillis, 1024 * 1024);
+    }
+
+    private <T> T fetch(ResponseCache cache, URL url, WeatherParser.Decoder<T> decoder) {
+        return RemoteFetch.getData(transport, cache, budget, "test", url, new FetchHandle(), decoder);
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.ellenluo.simpleweather;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the request budget on a simulated clock.
+ */
+public class RequestBudgetTest {
+
+    private static final long MILLIS = 1000000L;
+    private static final long MINUTE = 60 * 1000 * MILLIS;
+
+    /**
+     * Budget whose clock only moves when the test advances it. The clock starts at zero, which is
+     * also what the constructor sees before fields are initialized.
+     */
+    private static class TestBudget extends RequestBudget {
+
+        long time;
+
+        TestBudget(int quotaPerMinute, int burst) {
+            super(quotaPerMinute, burst, 0);
+        }
+
+        @Override
+        long now() {
+            return time;
+        }
+    }
+
+    @Test
+    public void sustainedLoadReachesQuotaWithoutExceedingIt() {
+        TestBudget budget = new TestBudget(60, 10);
+        List<Long> granted = new ArrayList<>();
+
+        // Ask far more often than the quota allows for ten minutes
+        for (long t = 0; t < 10 * MINUTE; t += 100 * MILLIS) {
+            budget.time = t;
+            if (budget.tryAcquire(false)) {
+                granted.add(t);
+            }
+        }
+
+        // No sliding minute carries more than the quota
+        int first = 0;
+        for (int last = 0; last < granted.size(); last++) {
+            while (granted.get(last) - granted.get(first) >= MINUTE) {
+                first++;
+            }
+            assertTrue(last - first + 1 <= 60);
+        }
+
+        // Throughput is the full quota over the whole run
+        assertTrue(granted.size() >= 60 * 10 - 2);
+    }
+
+    @Test
+    public void waitEndsWhenWindowHasRoom() throws Exception {
+        // Real clock: a quota of 2 with a burst of 2, so the third request must wait for the window
+        RequestBudget budget = new RequestBudget(2, 2, 100);
+        assertTrue(budget.tryAcquire(false));
+        assertTrue(budget.tryAcquire(false));
+
+        long start = System.nanoTime();
+        assertFalse(budget.acquire(new FetchHandle()));
+        assertTrue((System.nanoTime() - start) / MILLIS < 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBurstAboveQuota() {
+        new RequestBudget(5, 10, 0);
+    }
+
+    @Test
+    public void backgroundLeavesReserveForForeground() {
+        TestBudget budget = new TestBudget(60, 10);
+
+        int background = 0;
+        while (budget.tryAcquire(true)) {
+            background++;
+        }
+
+        assertEquals(5, background);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(budget.tryAcquire(false));
+        }
+        assertFalse(budget.tryAcquire(false));
+    }
+
+}
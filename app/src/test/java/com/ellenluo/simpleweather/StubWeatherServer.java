@@ -0,0 +1,321 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Local stand-in for the Open Weather Map API, serving synthetic payloads with configurable
+ * faults: latency, bandwidth limits, HTTP errors, non-200 "cod" bodies, truncated bodies and slow
+ * drips. Faults are drawn from a seeded random source so runs are repeatable.
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+class StubWeatherServer implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int CHUNK_BYTES = 1024;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Random random;
+    private volatile Faults faults = new Faults();
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger notModifiedCount = new AtomicInteger();
+    private volatile String lastApiKey;
+
+    /**
+     * Faults applied to each response. All default to off.
+     */
+    static class Faults {
+
+        long latencyMillis;
+        long jitterMillis;
+        int bytesPerSecond;
+        double errorRate;
+        int errorCode = 500;
+        double codErrorRate;
+        double truncateRate;
+        int dripChunkBytes;
+        long dripDelayMillis;
+        boolean etags = true;
+
+        /**
+         * Delays each response by millis plus a uniformly random extra up to jitter.
+         */
+        Faults latency(long millis, long jitter) {
+            latencyMillis = millis;
+            jitterMillis = jitter;
+            return this;
+        }
+
+        /**
+         * Limits body transfer rate.
+         */
+        Faults bandwidth(int bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Answers the given fraction of requests with an HTTP error.
+         */
+        Faults errors(double rate, int code) {
+            errorRate = rate;
+            errorCode = code;
+            return this;
+        }
+
+        /**
+         * Answers the given fraction of requests with HTTP 200 but an error "cod" in the body.
+         */
+        Faults codErrors(double rate) {
+            codErrorRate = rate;
+            return this;
+        }
+
+        /**
+         * Cuts the given fraction of bodies off halfway through.
+         */
+        Faults truncate(double rate) {
+            truncateRate = rate;
+            return this;
+        }
+
+        /**
+         * Sends bodies in chunks of chunkBytes with delayMillis between them.
+         */
+        Faults drip(int chunkBytes, long delayMillis) {
+            dripChunkBytes = chunkBytes;
+            dripDelayMillis = delayMillis;
+            return this;
+        }
+
+        /**
+         * Turns validators off, so conditional requests always get a full response.
+         */
+        Faults noEtags() {
+            etags = false;
+            return this;
+        }
+    }
+
+    /**
+     * Starts a server on a free local port serving the synthetic benchmark payloads.
+     */
+    static StubWeatherServer start(long seed) throws IOException {
+        return new StubWeatherServer(load("/current.json"), load("/forecast.json"), seed);
+    }
+
+    /**
+     * Starts a server on a free local port serving the given bodies.
+     */
+    StubWeatherServer(byte[] current, byte[] forecast, long seed) throws IOException {
+        random = new Random(seed);
+        executor = Executors.newCachedThreadPool();
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/data/2.5/weather", new PayloadHandler(current));
+        server.createContext("/data/2.5/forecast", new PayloadHandler(forecast));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    void setFaults(Faults faults) {
+        this.faults = faults;
+    }
+
+    /**
+     * Returns the base URL to configure a provider with.
+     */
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/data/2.5";
+    }
+
+    /**
+     * Returns the URL of endpoint ("weather" or "forecast") for a location, in the form the app uses.
+     */
+    URL url(String endpoint, String locationParameter) {
+        try {
+            return new URL("http", "127.0.0.1", server.getAddress().getPort(),
+                    "/data/2.5/" + endpoint + "?" + locationParameter + "&units=metric");
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the API key sent with the last request, or null if it had none.
+     */
+    String getLastApiKey() {
+        return lastApiKey;
+    }
+
+    int getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private double nextDouble() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    /**
+     * Serves one payload, applying the current faults.
+     */
+    private class PayloadHandler implements HttpHandler {
+
+        private final byte[] body;
+        private final byte[] gzipBody;
+        private final String etag;
+
+        PayloadHandler(byte[] body) throws IOException {
+            this.body = body;
+            this.gzipBody = gzip(body);
+            this.etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requestCount.incrementAndGet();
+            lastApiKey = exchange.getRequestHeaders().getFirst("x-api-key");
+            Faults f = faults;
+
+            try {
+                sleep(f.latencyMillis + (long) (nextDouble() * f.jitterMillis));
+
+                if (nextDouble() < f.errorRate) {
+                    send(exchange, f, f.errorCode, error(f.errorCode, "injected error"), false);
+                    return;
+                }
+
+                if (nextDouble() < f.codErrorRate) {
+                    // The API reports some failures only in the body
+                    send(exchange, f, 200, error(404, "city not found"), false);
+                    return;
+                }
+
+                if (f.etags) {
+                    exchange.getResponseHeaders().set("ETag", etag);
+                    if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                        notModifiedCount.incrementAndGet();
+                        exchange.sendResponseHeaders(304, -1);
+                        return;
+                    }
+                }
+
+                boolean gzip = accepts(exchange, "gzip");
+                if (gzip) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                send(exchange, f, 200, gzip ? gzipBody : body, nextDouble() < f.truncateRate);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /**
+         * Writes a response with a fixed length, throttled as configured. A truncated response
+         * stops halfway; closing the exchange short of the declared length drops the connection,
+         * so the client sees the body end early.
+         */
+        private void send(HttpExchange exchange, Faults f, int code, byte[] data, boolean truncate)
+                throws IOException, InterruptedException {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(code, data.length);
+
+            int limit = truncate ? data.length / 2 : data.length;
+            int chunk = f.dripChunkBytes > 0 ? f.dripChunkBytes : CHUNK_BYTES;
+            OutputStream out = exchange.getResponseBody();
+
+            for (int offset = 0; offset < limit; offset += chunk) {
+                int count = Math.min(chunk, limit - offset);
+                out.write(data, offset, count);
+                out.flush();
+
+                if (f.dripDelayMillis > 0) {
+                    sleep(f.dripDelayMillis);
+                }
+                if (f.bytesPerSecond > 0) {
+                    sleep(count * 1000L / f.bytesPerSecond);
+                }
+            }
+        }
+    }
+
+    private static boolean accepts(HttpExchange exchange, String encoding) {
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        return accept != null && accept.contains(encoding);
+    }
+
+    private static byte[] error(int cod, String message) {
+        return ("{\"cod\":\"" + cod + "\",\"message\":\"" + message + "\"}").getBytes(UTF_8);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static void sleep(long millis) throws InterruptedException {
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+
+    /**
+     * Reads a payload from the test classpath.
+     */
+    static byte[] load(String name) throws IOException {
+        InputStream in = StubWeatherServer.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Missing payload " + name);
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+}
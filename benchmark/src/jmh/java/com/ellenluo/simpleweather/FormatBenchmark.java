@@ -0,0 +1,75 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Forecast row construction, daily aggregation, and the date formatting inside row construction:
+ * a SimpleDateFormat per row, as the adapter originally did while binding, against one per forecast.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FormatBenchmark {
+
+    private static final String DATE_PATTERN = "EEE, MMMM d 'at' h:mm aa";
+
+    @Param({"true", "false"})
+    public boolean metric;
+
+    private Forecast forecast;
+    private ForecastFormatter formatter;
+
+    @Setup
+    public void setUp() {
+        forecast = Payloads.forecast();
+        formatter = new ForecastFormatter("Humidity:", "Pressure:", "Wind Speed:", "Precipitation:", "Max Wind:",
+                Units.get(metric), GlyphBenchmark.newGlyphTable());
+    }
+
+    @Benchmark
+    public ForecastFormatter.Rows formatRows() {
+        // Days are cached on the forecast after the first call, so this measures row building only
+        return formatter.format(forecast);
+    }
+
+    @Benchmark
+    public List<ForecastDay> aggregateDays() {
+        return ForecastDay.aggregate(forecast, TimeZone.getDefault());
+    }
+
+    @Benchmark
+    public void dateFormatPerRow(Blackhole bh) {
+        for (int i = 0; i < forecast.size(); i++) {
+            SimpleDateFormat df = new SimpleDateFormat(DATE_PATTERN, Locale.US);
+            bh.consume(df.format(new Date(forecast.getTime(i))));
+        }
+    }
+
+    @Benchmark
+    public void dateFormatShared(Blackhole bh) {
+        SimpleDateFormat df = new SimpleDateFormat(DATE_PATTERN, Locale.US);
+        Date date = new Date();
+
+        for (int i = 0; i < forecast.size(); i++) {
+            date.setTime(forecast.getTime(i));
+            bh.consume(df.format(date));
+        }
+    }
+
+}
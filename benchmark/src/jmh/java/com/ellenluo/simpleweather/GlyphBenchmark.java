@@ -0,0 +1,91 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Condition id to icon glyph mapping for every entry of a forecast: the lookup table against the
+ * switch the app originally ran per row.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GlyphBenchmark {
+
+    // Glyphs from the weather icons font, as in strings.xml
+    private static final String SUNNY = "\uf00d";
+    private static final String CLEAR_NIGHT = "\uf02e";
+    private static final String FOGGY = "\uf014";
+    private static final String CLOUDY = "\uf013";
+    private static final String RAINY = "\uf019";
+    private static final String SNOWY = "\uf01b";
+    private static final String THUNDER = "\uf01e";
+    private static final String DRIZZLE = "\uf01c";
+
+    private int[] conditionIds;
+    private GlyphTable glyphs;
+
+    static GlyphTable newGlyphTable() {
+        return new GlyphTable(THUNDER, DRIZZLE, RAINY, SNOWY, FOGGY, CLOUDY, SUNNY, CLEAR_NIGHT);
+    }
+
+    @Setup
+    public void setUp() {
+        Forecast forecast = Payloads.forecast();
+        conditionIds = new int[forecast.size()];
+        for (int i = 0; i < conditionIds.length; i++) {
+            conditionIds[i] = forecast.getConditionId(i);
+        }
+        glyphs = newGlyphTable();
+    }
+
+    @Benchmark
+    public void table(Blackhole bh) {
+        for (int id : conditionIds) {
+            bh.consume(glyphs.get(id, true));
+        }
+    }
+
+    @Benchmark
+    public void switchPerRow(Blackhole bh) {
+        for (int id : conditionIds) {
+            bh.consume(switchGlyph(id, true));
+        }
+    }
+
+    /**
+     * Original mapping, minus the resource lookup it made for every call.
+     */
+    private static String switchGlyph(int actualId, boolean day) {
+        if (actualId == 800) {
+            return day ? SUNNY : CLEAR_NIGHT;
+        }
+
+        switch (actualId / 100) {
+            case 2:
+                return THUNDER;
+            case 3:
+                return DRIZZLE;
+            case 7:
+                return FOGGY;
+            case 8:
+                return CLOUDY;
+            case 6:
+                return SNOWY;
+            case 5:
+                return RAINY;
+            default:
+                return "";
+        }
+    }
+
+}
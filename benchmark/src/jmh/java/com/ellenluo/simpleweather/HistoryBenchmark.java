@@ -0,0 +1,70 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Range queries over six months of observation history recorded every 10 minutes.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HistoryBenchmark {
+
+    private static final String KEY = "zip=94720,us";
+    private static final long MINUTE = 60 * 1000L;
+    private static final long DAY = 24 * 60 * MINUTE;
+
+    private File dir;
+    private ObservationHistory history;
+    private long end;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("history").toFile();
+        history = new ObservationHistory(dir, 100000, 10 * MINUTE, 7 * DAY);
+
+        CurrentWeather c = Payloads.current();
+        end = 180 * DAY;
+        for (long time = 10 * MINUTE; time <= end; time += 10 * MINUTE) {
+            history.append(KEY, new CurrentWeather(c.cityId, c.city, c.country, c.conditionId, c.description,
+                    c.temperature, c.humidity, c.pressure, c.windSpeed, c.sunrise, c.sunset, time));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public ObservationHistory.Range lastWeek() {
+        return history.query(KEY, end - 7 * DAY, end);
+    }
+
+    @Benchmark
+    public ObservationHistory.Range lastThreeMonths() {
+        return history.query(KEY, end - 90 * DAY, end);
+    }
+
+    @Benchmark
+    public double lastMonthMean() {
+        return history.query(KEY, end - 30 * DAY, end).getTemperatureMean();
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Response decoding: the streaming parser the app uses against the original path of buffering
+ * the body into a String and building a JSONObject tree.
+ */
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseBenchmark {
+
+    private byte[] current;
+    private byte[] forecast;
+
+    @Setup
+    public void setUp() {
+        current = Payloads.load(Payloads.CURRENT);
+        forecast = Payloads.load(Payloads.FORECAST);
+    }
+
+    @Benchmark
+    public CurrentWeather currentStreaming() throws IOException {
+        return WeatherParser.parseCurrent(new ByteArrayInputStream(current));
+    }
+
+    @Benchmark
+    public CurrentWeather currentJsonObject() throws IOException, JSONException {
+        JSONObject json = readJson(new ByteArrayInputStream(current));
+        JSONObject details = json.getJSONArray("weather").getJSONObject(0);
+        JSONObject main = json.getJSONObject("main");
+        JSONObject sys = json.getJSONObject("sys");
+
+        return new CurrentWeather(json.getInt("id"), json.getString("name"), sys.getString("country"),
+                details.getInt("id"), details.getString("description"), main.getDouble("temp"), main.getInt("humidity"),
+                main.getDouble("pressure"), json.getJSONObject("wind").getDouble("speed"), sys.getLong("sunrise") * 1000,
+                sys.getLong("sunset") * 1000, json.getLong("dt") * 1000);
+    }
+
+    @Benchmark
+    public Forecast forecastStreaming() throws IOException {
+        return WeatherParser.parseForecast(new ByteArrayInputStream(forecast));
+    }
+
+    @Benchmark
+    public Forecast forecastJsonObject() throws IOException, JSONException {
+        JSONArray list = readJson(new ByteArrayInputStream(forecast)).getJSONArray("list");
+        Forecast.Builder forecast = new Forecast.Builder(list.length());
+
+        for (int i = 0; i < list.length(); i++) {
+            JSONObject entry = list.getJSONObject(i);
+            JSONObject main = entry.getJSONObject("main");
+            JSONObject details = entry.getJSONArray("weather").getJSONObject(0);
+
+            forecast.add(entry.getLong("dt") * 1000, details.getInt("id"), details.getString("description"),
+                    main.getDouble("temp"), main.getDouble("temp_min"), main.getDouble("temp_max"),
+                    main.getInt("humidity"), main.getDouble("pressure"), entry.getJSONObject("wind").getDouble("speed"),
+                    precipitation(entry, "rain") + precipitation(entry, "snow"));
+        }
+
+        return forecast.build();
+    }
+
+    /**
+     * Returns the 3 hour volume of rain or snow in mm, or 0 if none is given.
+     */
+    private static double precipitation(JSONObject entry, String name) {
+        JSONObject volume = entry.optJSONObject(name);
+        return volume == null ? 0 : volume.optDouble("3h", 0);
+    }
+
+    /**
+     * Reads a body the way the app originally did, line by line into a String, then parses it.
+     */
+    private static JSONObject readJson(InputStream in) throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        StringBuilder json = new StringBuilder(1024);
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            json.append(line).append('\n');
+        }
+        reader.close();
+
+        return new JSONObject(json.toString());
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Synthetic Open Weather Map responses used as benchmark input. They were written by hand to the
+ * API's response format and typical size (a full 40 entry forecast) rather than recorded, since
+ * recording needs an API key and the live values change every call.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+class Payloads {
+
+    static final String CURRENT = "/current.json";
+    static final String FORECAST = "/forecast.json";
+
+    /**
+     * Reads a payload from the classpath.
+     */
+    static byte[] load(String name) {
+        InputStream in = Payloads.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IllegalStateException("Missing payload " + name);
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Decodes the synthetic forecast with the app's parser.
+     */
+    static Forecast forecast() {
+        try {
+            return WeatherParser.parseForecast(new ByteArrayInputStream(load(FORECAST)));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes the synthetic current conditions with the app's parser.
+     */
+    static CurrentWeather current() {
+        try {
+            return WeatherParser.parseCurrent(new ByteArrayInputStream(load(CURRENT)));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.ellenluo.simpleweather;
+
+/**
+ * Startup snapshot encoding and decoding, for comparison with decoding the same data from JSON
+ * in ParseBenchmark.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SnapshotBenchmark {
+
+    private Snapshot snapshot;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        snapshot = new Snapshot("zip=94720,us", System.currentTimeMillis(), Payloads.current(), Payloads.forecast());
+        encoded = snapshot.encode();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return snapshot.encode();
+    }
+
+    @Benchmark
+    public Snapshot decode() {
+        return Snapshot.decode(ByteBuffer.wrap(encoded));
+    }
+
+}